@@ -0,0 +1,253 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.ipojo.extender.queue.QueueListener;
+import org.apache.felix.ipojo.extender.queue.debug.QueueEventProxy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Per-job cost (enlisted, started and executed events) of the queue statistics listeners, from 1 to 8 concurrent
+ * worker threads (the scaling curve). The {@code recorder} target is the listener registered by
+ * {@link QueueEventRecorder} (rates, running jobs, ring and statistics), the others are its parts.
+ * Allocation rates come from the gc profiler, enabled by {@link #main(String[])}
+ * (or with {@code -prof gc} when running {@code benchmarks.jar}).
+ * <p>
+ * Lives in the bundle's package: the listeners are package private.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class QueueListenerBenchmark {
+
+    /**
+     * Number of distinct pre-built events (and job types among them), so the benchmark loop does not allocate.
+     */
+    private static final int EVENTS = 4096;
+    private static final int JOB_TYPES = 16;
+
+    @State(Scope.Benchmark)
+    public static class Target {
+
+        @Param({"accumulated", "partitioned", "worsts", "statistics", "recorder"})
+        String listener;
+
+        QueueListener target;
+        JobInfo[] jobs;
+
+        /**
+         * Threads of the current trial, gives each {@link Cursor} its offset.
+         */
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            target = create(listener);
+            jobs = createEvents();
+            threads.set(0);
+        }
+
+        void run(final int index) {
+            JobInfo job = jobs[index];
+            target.enlisted(job);
+            target.started(job);
+            target.executed(job, null);
+        }
+    }
+
+    /**
+     * Each thread walks the events from its own offset, so threads do not send the same job at the same time.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(final Target target) {
+            next = target.threads.getAndIncrement() * 31;
+        }
+
+        int next() {
+            return (next++) & (EVENTS - 1);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void job1(final Target target, final Cursor cursor) {
+        target.run(cursor.next());
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void job2(final Target target, final Cursor cursor) {
+        target.run(cursor.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void job4(final Target target, final Cursor cursor) {
+        target.run(cursor.next());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void job8(final Target target, final Cursor cursor) {
+        target.run(cursor.next());
+    }
+
+    static QueueListener create(final String name) {
+        if ("accumulated".equals(name)) {
+            return new AccumulatedDurationListener();
+        }
+        if ("partitioned".equals(name)) {
+            return new PerJobTypeAccumulator(QueueEventRecorder.MAX_WORSTS_PER_TYPE);
+        }
+        if ("worsts".equals(name)) {
+            return new WorstJobsFinder(QueueEventRecorder.MAX_WORSTS);
+        }
+        if ("recorder".equals(name)) {
+            CapturingProxy proxy = new CapturingProxy();
+            new QueueEventRecorder(proxy).start();
+            return proxy.listener;
+        }
+        return new QueueStatistics(System.currentTimeMillis(),
+                                   QueueEventRecorder.MAX_WORSTS,
+                                   QueueEventRecorder.MAX_WORSTS_PER_TYPE);
+    }
+
+    static JobInfo[] createEvents() {
+        // Fixed seed: runs are comparable
+        Random random = new Random(42);
+        JobInfo[] jobs = new JobInfo[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            // Mostly short jobs, with a long tail
+            long execution = (long) Math.abs(random.nextGaussian() * 5) + ((random.nextInt(100) == 0) ? 1000 : 0);
+            jobs[i] = new SyntheticJob("type-" + random.nextInt(JOB_TYPES),
+                                       "synthetic job " + i,
+                                       i,
+                                       random.nextInt(50),
+                                       execution);
+        }
+        return jobs;
+    }
+
+    /**
+     * Job as sent by the queue: not a {@link JobSnapshot}, so the listeners copy it as they do in production.
+     */
+    static final class SyntheticJob implements JobInfo {
+
+        private final String jobType;
+        private final String description;
+        private final long enlistmentTime;
+        private final long waitDuration;
+        private final long executionDuration;
+
+        SyntheticJob(final String jobType,
+                     final String description,
+                     final long enlistmentTime,
+                     final long waitDuration,
+                     final long executionDuration) {
+            this.jobType = jobType;
+            this.description = description;
+            this.enlistmentTime = enlistmentTime;
+            this.waitDuration = waitDuration;
+            this.executionDuration = executionDuration;
+        }
+
+        @Override
+        public long getEnlistmentTime() {
+            return enlistmentTime;
+        }
+
+        @Override
+        public long getStartTime() {
+            return enlistmentTime + waitDuration;
+        }
+
+        @Override
+        public long getEndTime() {
+            return enlistmentTime + waitDuration + executionDuration;
+        }
+
+        @Override
+        public long getWaitDuration() {
+            return waitDuration;
+        }
+
+        @Override
+        public long getExecutionDuration() {
+            return executionDuration;
+        }
+
+        @Override
+        public String getJobType() {
+            return jobType;
+        }
+
+        @Override
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * Keeps the listener registered by the recorder, so events are sent to it directly.
+     */
+    static final class CapturingProxy implements QueueEventProxy {
+
+        QueueListener listener;
+
+        @Override
+        public void addQueueListener(final QueueListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void removeQueueListener(final QueueListener listener) {
+            this.listener = null;
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(QueueListenerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -11,6 +11,7 @@
 
 package com.peergreen.shelbie.ipojo.internal;
 
+import java.io.IOException;
 import java.util.Collections;
 
 import org.apache.felix.gogo.commands.Action;
@@ -30,6 +31,50 @@ public abstract class AbstractDeclarationAction implements Action {
             required = false)
     protected boolean verbose = false;
 
+    @Option(name = "--format",
+            description = "Output format: text (default), json (one object per line) or csv",
+            required = false)
+    protected String format;
+
+    /**
+     * Columns of the declaration records (json and csv formats).
+     */
+    protected static final String[] DECLARATION_COLUMNS = {"serviceId", "bundleId", "kind", "bound", "implementation",
+            "componentName", "componentVersion", "extensionName", "instanceName", "message", "error",
+            "registrationTime", "boundTime"};
+
+    protected void writeDeclaration(final RecordWriter records, final DeclarationEntry entry) throws IOException {
+        Declaration declaration = entry.getDeclaration();
+        Status status = declaration.getStatus();
+        records.beginRecord();
+        records.value(entry.getServiceId());
+        records.value(entry.getBundleId());
+        records.value(entry.getKind().name().toLowerCase());
+        records.value(status.isBound());
+        records.value(declaration.getClass().getName());
+        records.value(entry.getComponentName());
+        records.value(entry.getComponentVersion());
+        records.value(entry.getExtensionName());
+        String instanceName = null;
+        if (declaration instanceof InstanceDeclaration) {
+            instanceName = ((InstanceDeclaration) declaration).getInstanceName();
+            if (InstanceDeclaration.UNNAMED_INSTANCE.equals(instanceName)) {
+                instanceName = null;
+            }
+        }
+        records.value(instanceName);
+        records.value(status.getMessage());
+        Throwable throwable = status.getThrowable();
+        records.value((throwable == null) ? null : throwable.getClass().getName() + ": " + throwable.getMessage());
+        records.value(entry.getRegistrationTime());
+        long boundTime = entry.getBoundTime();
+        if (boundTime < 0) {
+            records.nullValue();
+        } else {
+            records.value(boundTime);
+        }
+        records.endRecord();
+    }
 
     protected void printDetails(final Ansi buffer, final Declaration declaration) {
         if (declaration instanceof InstanceDeclaration) {
@@ -0,0 +1,27 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+
+class AccumulatedDurationListener extends EmptyQueueListener {
+
+    final LatencyHistogram execution = new LatencyHistogram();
+    final LatencyHistogram waiting = new LatencyHistogram();
+
+    @Override
+    protected void ended(final JobInfo info) {
+        waiting.record(info.getWaitDuration());
+        execution.record(info.getExecutionDuration());
+    }
+
+}
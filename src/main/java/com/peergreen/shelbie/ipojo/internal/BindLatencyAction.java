@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.gogo.commands.Option;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "bind-latency",
+         scope = "ipojo",
+         description = "Show how long declarations took to become bound, globally and per bundle")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class BindLatencyAction implements Action {
+
+    @Option(name = "-n",
+            aliases = "--slowest",
+            description = "Number of slowest declarations to display (10 by default)",
+            required = false)
+    private int slowest = 10;
+
+    private final DeclarationRegistry registry;
+
+    public BindLatencyAction(final @Requires DeclarationRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        PrintStream out = Consoles.of(session);
+
+        LatencyHistogram latencies = registry.getBindLatencies();
+        Ansi buffer = Ansi.ansi();
+        buffer.render("@|bold %d|@ declaration(s) got bound, @|yellow %d|@ never bound so far%n",
+                      latencies.getCount(),
+                      registry.getPending().size());
+        buffer.render("Time-to-bound: (min:%d, avg:%d, p50:%d, p90:%d, p99:%d, max:%d) ms, precision %d ms or %d%%%n",
+                      latencies.getMin(),
+                      latencies.getMean(),
+                      latencies.getValueAtPercentile(50),
+                      latencies.getValueAtPercentile(90),
+                      latencies.getValueAtPercentile(99),
+                      latencies.getMax(),
+                      DeclarationRegistry.PENDING_POLL_PERIOD,
+                      100 / DeclarationRegistry.PENDING_POLL_RATIO);
+        if (registry.getLateBound() > 0) {
+            buffer.render("@|yellow %d|@ declaration(s) got bound after %d s, their time-to-bound is not measured%n",
+                          registry.getLateBound(),
+                          DeclarationRegistry.PENDING_TIMEOUT / 1000);
+        }
+        buffer.newline();
+        out.print(buffer);
+
+        // Pending declarations are measured against the same instant, so their order stays stable
+        final long now = System.currentTimeMillis();
+        Comparator<DeclarationEntry> fastestFirst = new Comparator<DeclarationEntry>() {
+            @Override
+            public int compare(final DeclarationEntry first, final DeclarationEntry second) {
+                return Long.compare(first.getTimeToBound(now), second.getTimeToBound(now));
+            }
+        };
+
+        // Single pass: slowest declarations (bounded heap) and per bundle aggregation
+        PriorityQueue<DeclarationEntry> worsts = new PriorityQueue<>(Math.max(1, slowest), fastestFirst);
+        Map<Long, BundleLatency> bundles = new TreeMap<>();
+        for (DeclarationEntry entry : registry.getAll()) {
+            // Time-to-bound of late bound declarations is unknown, they are only counted
+            if ((slowest > 0) && !entry.isLateBound()) {
+                worsts.offer(entry);
+                if (worsts.size() > slowest) {
+                    worsts.poll();
+                }
+            }
+            BundleLatency bundle = bundles.get(entry.getBundleId());
+            if (bundle == null) {
+                bundle = new BundleLatency();
+                bundles.put(entry.getBundleId(), bundle);
+            }
+            bundle.add(entry, now);
+        }
+
+        List<DeclarationEntry> sorted = new ArrayList<>(worsts);
+        Collections.sort(sorted, Collections.reverseOrder(fastestFirst));
+        buffer = Ansi.ansi();
+        buffer.render("@|bold Slowest declarations|@").newline();
+        buffer.render("@|bold   ID | Bnd |      Kind | Time-to-bound | Name|@").newline();
+        for (DeclarationEntry entry : sorted) {
+            buffer.render("%4d | %-3d | %9s | %10d ms | %s%s%n",
+                          entry.getServiceId(),
+                          entry.getBundleId(),
+                          entry.getKind().name().toLowerCase(),
+                          entry.getTimeToBound(now),
+                          (entry.getComponentName() != null) ? entry.getComponentName() : entry.getExtensionName(),
+                          (entry.getBoundTime() < 0) ? " (still unbound)" : "");
+        }
+        buffer.newline();
+        out.print(buffer);
+
+        out.print(Ansi.ansi().render("@|bold Per bundle|@").newline()
+                      .render("@|bold Bnd | Declarations | Unbound | Late | Total ms |   Max ms|@").newline());
+        for (Map.Entry<Long, BundleLatency> bundle : bundles.entrySet()) {
+            BundleLatency latency = bundle.getValue();
+            out.print(Ansi.ansi().render("%-3d | %12d | %7d | %4d | %8d | %8d%n",
+                                         bundle.getKey(),
+                                         latency.declarations,
+                                         latency.unbound,
+                                         latency.late,
+                                         latency.total,
+                                         latency.max));
+        }
+
+        out.flush();
+        return null;
+    }
+
+    private static class BundleLatency {
+        private int declarations = 0;
+        private int unbound = 0;
+        private int late = 0;
+        private long total = 0;
+        private long max = 0;
+
+        void add(final DeclarationEntry entry, final long now) {
+            declarations++;
+            if (entry.isLateBound()) {
+                late++;
+                return;
+            }
+            long time = entry.getTimeToBound(now);
+            if (entry.getBoundTime() < 0) {
+                unbound++;
+            }
+            total += time;
+            max = Math.max(max, time);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.ipojo.extender.queue.QueueService;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * A {@link QueueService} bound by the {@link QueueRegistry}, with its identification properties
+ * and its finished count sampled every second.
+ */
+public class BoundQueue {
+
+    /**
+     * Window (in seconds) over which finished jobs rates are averaged.
+     */
+    public static final int RATE_WINDOW = 60;
+
+    static final String QUEUE_MODE = "ipojo.queue.mode";
+    static final String QUEUE_ID = "ipojo.queue.id";
+
+    private final QueueService service;
+    private final long serviceId;
+
+    /**
+     * Queue id (or generated name), {@link #name} is its shortened form for the text format.
+     */
+    private final String id;
+    private final String name;
+    private final String mode;
+
+    /**
+     * Finished count sampled at the beginning of each second of the rate window (one more slot than the
+     * window, so that its first second is never overwritten).
+     */
+    private final long[] finishedSamples = new long[RATE_WINDOW + 1];
+    private final long[] sampleTimes = new long[RATE_WINDOW + 1];
+
+    BoundQueue(final QueueService service, final ServiceReference reference) {
+        this.service = service;
+        this.serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
+        Object queueId = reference.getProperty(QUEUE_ID);
+        this.id = (queueId != null) ? queueId.toString() : (service.getClass().getSimpleName() + " #" + serviceId);
+        this.name = (this.id.length() <= 40) ? this.id : "..." + this.id.substring(this.id.length() - 37);
+        Object mode = reference.getProperty(QUEUE_MODE);
+        this.mode = (mode != null) ? mode.toString() : "?";
+        sample(System.currentTimeMillis());
+    }
+
+    public QueueService getService() {
+        return service;
+    }
+
+    public long getServiceId() {
+        return serviceId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return queue id, shortened to 40 characters
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    synchronized void sample(final long now) {
+        int slot = (int) ((now / 1000) % sampleTimes.length);
+        finishedSamples[slot] = service.getFinished();
+        sampleTimes[slot] = now;
+    }
+
+    /**
+     * @param finished current finished count
+     * @return finished jobs per second since the oldest sample of the window (or since the queue was bound)
+     */
+    public synchronized double rate(final long finished, final long now) {
+        long start = now - TimeUnit.SECONDS.toMillis(RATE_WINDOW);
+        int oldest = -1;
+        for (int i = 0; i < sampleTimes.length; i++) {
+            if ((sampleTimes[i] >= start) && ((oldest < 0) || (sampleTimes[i] < sampleTimes[oldest]))) {
+                oldest = i;
+            }
+        }
+        if (oldest < 0) {
+            return 0;
+        }
+        return ((finished - finishedSamples[oldest]) * 1000.0) / Math.max(1, now - sampleTimes[oldest]);
+    }
+}
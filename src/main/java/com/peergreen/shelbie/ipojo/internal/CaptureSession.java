@@ -0,0 +1,117 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+
+/**
+ * A bounded (in time) recording of the queue jobs, optionally sampled.
+ * Sampling is deterministic: a job is kept when the hash of its type, description and enlistment time
+ * falls in the sample, so no state is shared between the recording threads.
+ */
+class CaptureSession extends EmptyQueueListener {
+
+    enum State {
+        RUNNING, FINISHED, CANCELLED
+    }
+
+    /**
+     * Approximate footprint (in bytes) of a retained worst job.
+     */
+    private static final int JOB_FOOTPRINT = 256;
+
+    private final int id;
+    private final long duration;
+    private final int sampling;
+    private final QueueStatistics statistics;
+    private volatile State state = State.RUNNING;
+    private volatile long endTime = 0;
+
+    CaptureSession(final int id, final long duration, final int sampling, final QueueStatistics statistics) {
+        this.id = id;
+        this.duration = duration;
+        this.sampling = Math.max(1, sampling);
+        this.statistics = statistics;
+        this.statistics.sampling = this.sampling;
+    }
+
+    @Override
+    protected void ended(final JobInfo info) {
+        if ((state == State.RUNNING) && isSampled(info)) {
+            statistics.ended(info);
+        }
+    }
+
+    private boolean isSampled(final JobInfo info) {
+        if (sampling == 1) {
+            return true;
+        }
+        long hash = (31L * String.valueOf(info.getJobType()).hashCode())
+                + String.valueOf(info.getDescription()).hashCode();
+        hash = (hash * 0x9E3779B97F4A7C15L) ^ info.getEnlistmentTime();
+        // Mix the bits (murmur3 finalizer) so that consecutive values spread evenly
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return ((hash & Long.MAX_VALUE) % sampling) == 0;
+    }
+
+    void end(final State end) {
+        if (state == State.RUNNING) {
+            endTime = System.currentTimeMillis();
+            state = end;
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getStartTime() {
+        return statistics.getSince();
+    }
+
+    /**
+     * @return requested duration (in ms)
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return actual end time, {@literal 0} while running
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public int getSampling() {
+        return sampling;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public QueueStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return approximate memory footprint (in bytes) of the retained statistics
+     */
+    long getFootprint() {
+        int histograms = 2 * (1 + statistics.partitioned.partitions.size());
+        int jobs = statistics.worstJobsFinder.size * (1 + statistics.partitioned.partitions.size());
+        return ((long) histograms * LatencyHistogram.FOOTPRINT) + ((long) jobs * JOB_FOOTPRINT);
+    }
+}
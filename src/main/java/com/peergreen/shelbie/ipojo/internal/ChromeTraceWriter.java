@@ -0,0 +1,80 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams profiled jobs in the Chrome trace-event JSON format (one complete "X" event per job,
+ * one lane per worker thread), readable by chrome://tracing or Perfetto.
+ */
+class ChromeTraceWriter {
+
+    private static final int PID = 1;
+
+    private final JsonWriter json;
+
+    ChromeTraceWriter(final Writer writer) {
+        this.json = new JsonWriter(writer);
+    }
+
+    public void write(final ProfileAnalysis analysis,
+                      final Map<Long, String> threads,
+                      final Set<ProfiledJob> critical) throws IOException {
+        long origin = analysis.getOrigin();
+
+        json.beginObject();
+        json.field("displayTimeUnit", "ms");
+        json.name("traceEvents").beginArray();
+
+        json.beginObject()
+                .field("name", "process_name")
+                .field("ph", "M")
+                .field("pid", PID)
+                .name("args").beginObject().field("name", "iPOJO queue").endObject()
+                .endObject();
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            json.beginObject()
+                    .field("name", "thread_name")
+                    .field("ph", "M")
+                    .field("pid", PID)
+                    .field("tid", thread.getKey())
+                    .name("args").beginObject().field("name", thread.getValue()).endObject()
+                    .endObject();
+        }
+
+        for (ProfiledJob job : analysis.getJobs()) {
+            JobSnapshot snapshot = job.getJob();
+            json.beginObject()
+                    .field("name", snapshot.getDescription())
+                    .field("cat", snapshot.getJobType())
+                    .field("ph", "X")
+                    .field("pid", PID)
+                    .field("tid", job.getThreadId())
+                    .field("ts", (job.getStartTime() - origin) * 1000)
+                    .field("dur", snapshot.getExecutionDuration() * 1000)
+                    .name("args").beginObject()
+                        .field("waited (ms)", snapshot.getWaitDuration())
+                        .field("enlisted (ms)", job.getEnlistmentTime() - origin)
+                        .field("critical", critical.contains(job))
+                    .endObject()
+                    .endObject();
+        }
+
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.apache.felix.service.command.CommandSession;
+
+final class Consoles {
+
+    private Consoles() {
+    }
+
+    /**
+     * @return the session's output stream, or {@link System#out} when the session has none
+     */
+    static PrintStream of(final CommandSession session) {
+        PrintStream console = (session == null) ? null : session.getConsole();
+        return (console == null) ? System.out : console;
+    }
+
+    /**
+     * @return a buffered writer over the session's output stream (to be flushed, never closed)
+     */
+    static Writer writerOf(final CommandSession session) {
+        return new BufferedWriter(new OutputStreamWriter(of(session), Charset.forName("UTF-8")));
+    }
+}
@@ -11,25 +11,19 @@
 
 package com.peergreen.shelbie.ipojo.internal;
 
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import org.apache.felix.gogo.commands.Argument;
 import org.apache.felix.gogo.commands.Command;
-import org.apache.felix.ipojo.annotations.Bind;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.HandlerDeclaration;
-import org.apache.felix.ipojo.annotations.Unbind;
+import org.apache.felix.ipojo.annotations.Requires;
 import org.apache.felix.ipojo.extender.Declaration;
-import org.apache.felix.ipojo.extender.ExtensionDeclaration;
-import org.apache.felix.ipojo.extender.InstanceDeclaration;
 import org.apache.felix.ipojo.extender.Status;
-import org.apache.felix.ipojo.extender.TypeDeclaration;
 import org.apache.felix.service.command.CommandSession;
 import org.fusesource.jansi.Ansi;
-import org.osgi.framework.Constants;
-import org.osgi.framework.ServiceReference;
 
 @Component
 @Command(name = "declaration",
@@ -38,24 +32,37 @@ import org.osgi.framework.ServiceReference;
 @HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
 public class DeclarationAction extends AbstractDeclarationAction {
 
-    private Map<Long, Declaration> declarations = new TreeMap<Long, Declaration>();
-
     @Argument(name = "service-ids",
               description = "Service ID of the declarations to display",
               multiValued = true,
               required = true)
     private List<Long> serviceIds;
 
+    private final DeclarationRegistry registry;
+
+    public DeclarationAction(final @Requires DeclarationRegistry registry) {
+        this.registry = registry;
+    }
+
     public Object execute(final CommandSession session) throws Exception {
 
+        OutputFormat outputFormat = OutputFormat.parse(format);
+        if (outputFormat != OutputFormat.TEXT) {
+            writeRecords(RecordWriter.of(outputFormat, Consoles.writerOf(session), DECLARATION_COLUMNS));
+            return null;
+        }
+
         verbose = true;
-        Ansi buffer = Ansi.ansi();
+        PrintStream out = Consoles.of(session);
 
         for (Long serviceId : serviceIds) {
-            Declaration declaration = declarations.get(serviceId);
-            if (declaration == null) {
+            // Each declaration is rendered and flushed on its own
+            Ansi buffer = Ansi.ansi();
+            DeclarationEntry entry = registry.get(serviceId);
+            if (entry == null) {
                 buffer.render("@|bold,red Service ID %d do not store a Declaration|@%n", serviceId);
             } else {
+                Declaration declaration = entry.getDeclaration();
 
                 // Header
                 // -----------------
@@ -77,46 +84,26 @@ public class DeclarationAction extends AbstractDeclarationAction {
                     printThrowable(buffer, status.getThrowable());
                 }
             }
+            out.print(buffer);
         }
 
-        System.out.print(buffer);
+        out.flush();
         return null;
     }
 
-    @Bind(aggregate = true, optional = true)
-    public void bindTypeDeclaration(TypeDeclaration declaration, ServiceReference reference) {
-        long serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
-        declarations.put(serviceId, declaration);
-    }
-
-    @Unbind
-    public void unbindTypeDeclaration(ServiceReference reference) {
-        long serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
-        declarations.remove(serviceId);
-    }
-
-    @Bind(aggregate = true, optional = true)
-    public void bindInstanceDeclaration(InstanceDeclaration declaration, ServiceReference reference) {
-        long serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
-        declarations.put(serviceId, declaration);
-    }
-
-    @Unbind
-    public void unbindInstanceDeclaration(ServiceReference reference) {
-        long serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
-        declarations.remove(serviceId);
-    }
-
-    @Bind(aggregate = true, optional = true)
-    public void bindExtensionDeclaration(ExtensionDeclaration declaration, ServiceReference reference) {
-        long serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
-        declarations.put(serviceId, declaration);
-    }
-
-    @Unbind
-    public void unbindExtensionDeclaration(ServiceReference reference) {
-        long serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
-        declarations.remove(serviceId);
+    /**
+     * Stream one record per requested service id, unknown ids only have their {@code serviceId} column set.
+     */
+    private void writeRecords(final RecordWriter records) throws IOException {
+        for (Long serviceId : serviceIds) {
+            DeclarationEntry entry = registry.get(serviceId);
+            if (entry == null) {
+                records.beginRecord().value(serviceId).nullValues().endRecord();
+            } else {
+                writeDeclaration(records, entry);
+            }
+        }
+        records.flush();
     }
 
-}
\ No newline at end of file
+}
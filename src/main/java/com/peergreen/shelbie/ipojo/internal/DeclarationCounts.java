@@ -0,0 +1,56 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Bound and unbound declaration counts per key, maintained by the {@link DeclarationRegistry}
+ * so that they can be read without iterating over the declarations.
+ */
+class DeclarationCounts<K extends Comparable<K>> {
+
+    private static final int UNBOUND = 0;
+    private static final int BOUND = 1;
+
+    private final ConcurrentMap<K, AtomicIntegerArray> counts = new ConcurrentHashMap<>();
+
+    void add(final K key, final boolean bound, final int delta) {
+        AtomicIntegerArray count = counts.get(key);
+        if (count == null) {
+            AtomicIntegerArray created = new AtomicIntegerArray(2);
+            count = counts.putIfAbsent(key, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.addAndGet(bound ? BOUND : UNBOUND, delta);
+    }
+
+    /**
+     * @return counts of declarations in the given state, by key (keys without such declaration are omitted)
+     */
+    public Map<K, Integer> get(final boolean bound) {
+        Map<K, Integer> selected = new TreeMap<>();
+        for (Map.Entry<K, AtomicIntegerArray> entry : counts.entrySet()) {
+            int count = entry.getValue().get(bound ? BOUND : UNBOUND);
+            if (count > 0) {
+                selected.put(entry.getKey(), count);
+            }
+        }
+        return selected;
+    }
+}
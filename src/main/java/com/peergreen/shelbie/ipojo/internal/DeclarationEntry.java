@@ -0,0 +1,173 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.Comparator;
+
+import org.apache.felix.ipojo.extender.Declaration;
+import org.apache.felix.ipojo.extender.ExtensionDeclaration;
+import org.apache.felix.ipojo.extender.InstanceDeclaration;
+import org.apache.felix.ipojo.extender.TypeDeclaration;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * A declaration known by the {@link DeclarationRegistry}, with its indexed attributes extracted once.
+ */
+final class DeclarationEntry {
+
+    static final Comparator<DeclarationEntry> BY_SERVICE_ID = new Comparator<DeclarationEntry>() {
+        @Override
+        public int compare(final DeclarationEntry first, final DeclarationEntry second) {
+            return Long.compare(first.serviceId, second.serviceId);
+        }
+    };
+
+    private final ServiceReference reference;
+    private final Declaration declaration;
+    private final long serviceId;
+    private final long bundleId;
+    private final DeclarationKind kind;
+    private final String componentName;
+    private final String componentVersion;
+    private final String extensionName;
+
+    /**
+     * Last observed binding state (maintained by the registry).
+     */
+    volatile boolean bound;
+
+    private final long registrationTime;
+
+    /**
+     * First time the declaration was observed bound, -1 if never.
+     */
+    volatile long boundTime = -1;
+
+    /**
+     * Bound after {@link DeclarationRegistry#PENDING_TIMEOUT}: {@link #boundTime} is when it was noticed,
+     * not when it happened.
+     */
+    volatile boolean lateBound;
+
+    /**
+     * Next time the pending declaration is polled (only used by the registry poller).
+     */
+    long nextPoll;
+
+    DeclarationEntry(final ServiceReference reference, final Declaration declaration) {
+        this.reference = reference;
+        this.declaration = declaration;
+        this.serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
+        this.bundleId = reference.getBundle().getBundleId();
+        this.kind = DeclarationKind.of(declaration);
+        switch (kind) {
+            case INSTANCE:
+                InstanceDeclaration id = (InstanceDeclaration) declaration;
+                this.componentName = id.getComponentName();
+                this.componentVersion = id.getComponentVersion();
+                this.extensionName = null;
+                break;
+            case TYPE:
+                TypeDeclaration td = (TypeDeclaration) declaration;
+                this.componentName = td.getComponentName();
+                this.componentVersion = td.getComponentVersion();
+                this.extensionName = td.getExtension();
+                break;
+            default:
+                this.componentName = null;
+                this.componentVersion = null;
+                this.extensionName = ((ExtensionDeclaration) declaration).getExtensionName();
+        }
+        this.registrationTime = System.currentTimeMillis();
+        this.bound = declaration.getStatus().isBound();
+        if (bound) {
+            this.boundTime = registrationTime;
+        }
+    }
+
+    public ServiceReference getReference() {
+        return reference;
+    }
+
+    public Declaration getDeclaration() {
+        return declaration;
+    }
+
+    public long getServiceId() {
+        return serviceId;
+    }
+
+    public long getBundleId() {
+        return bundleId;
+    }
+
+    public DeclarationKind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return component name (for types and instances), {@literal null} otherwise
+     */
+    public String getComponentName() {
+        return componentName;
+    }
+
+    public String getComponentVersion() {
+        return componentVersion;
+    }
+
+    /**
+     * @return the provided extension (for extensions) or the required one (for types), {@literal null} otherwise
+     */
+    public String getExtensionName() {
+        return extensionName;
+    }
+
+    public boolean isBound() {
+        return bound;
+    }
+
+    public long getRegistrationTime() {
+        return registrationTime;
+    }
+
+    /**
+     * @return first time the declaration was observed bound, -1 if never
+     */
+    public long getBoundTime() {
+        return boundTime;
+    }
+
+    /**
+     * @return {@literal true} if the declaration got bound after {@link DeclarationRegistry#PENDING_TIMEOUT},
+     *         its time-to-bound is then unknown
+     */
+    public boolean isLateBound() {
+        return lateBound;
+    }
+
+    /**
+     * @return time elapsed from registration to first bound state, or waited so far if it was never bound
+     */
+    public long getTimeToBound() {
+        return getTimeToBound(System.currentTimeMillis());
+    }
+
+    /**
+     * @param now time used for declarations never bound
+     */
+    public long getTimeToBound(final long now) {
+        long bound = boundTime;
+        return ((bound < 0) ? now : bound) - registrationTime;
+    }
+}
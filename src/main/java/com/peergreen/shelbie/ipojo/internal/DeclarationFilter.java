@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.regex.Pattern;
+
+/**
+ * Criteria used to query the {@link DeclarationRegistry}. Unset criteria ({@literal null}) match everything.
+ */
+class DeclarationFilter {
+
+    Boolean bound;
+    Long bundleId;
+    DeclarationKind kind;
+    String componentVersion;
+    String extensionName;
+    private String componentName;
+    private Pattern componentPattern;
+
+    /**
+     * @param componentName component name, may contain '*' wildcards
+     */
+    public void setComponentName(final String componentName) {
+        this.componentName = componentName;
+        this.componentPattern = null;
+        if ((componentName != null) && (componentName.indexOf('*') != -1)) {
+            StringBuilder regex = new StringBuilder();
+            for (String part : componentName.split("\\*", -1)) {
+                if (regex.length() != 0 || componentName.startsWith("*")) {
+                    regex.append(".*");
+                }
+                regex.append(Pattern.quote(part));
+            }
+            this.componentPattern = Pattern.compile(regex.toString());
+        }
+    }
+
+    public String getComponentName() {
+        return componentName;
+    }
+
+    /**
+     * @return constant part of the component name before any wildcard
+     */
+    public String getComponentPrefix() {
+        if (componentName == null) {
+            return null;
+        }
+        int star = componentName.indexOf('*');
+        return (star == -1) ? componentName : componentName.substring(0, star);
+    }
+
+    public boolean isComponentPattern() {
+        return componentPattern != null;
+    }
+
+    public boolean matches(final DeclarationEntry entry) {
+        if ((bound != null) && (bound != entry.isBound())) {
+            return false;
+        }
+        if ((bundleId != null) && (bundleId != entry.getBundleId())) {
+            return false;
+        }
+        if ((kind != null) && (kind != entry.getKind())) {
+            return false;
+        }
+        if ((componentVersion != null) && !componentVersion.equals(entry.getComponentVersion())) {
+            return false;
+        }
+        if ((extensionName != null) && !extensionName.equals(entry.getExtensionName())) {
+            return false;
+        }
+        if (componentName != null) {
+            if (entry.getComponentName() == null) {
+                return false;
+            }
+            if (componentPattern != null) {
+                return componentPattern.matcher(entry.getComponentName()).matches();
+            }
+            return componentName.equals(entry.getComponentName());
+        }
+        return true;
+    }
+}
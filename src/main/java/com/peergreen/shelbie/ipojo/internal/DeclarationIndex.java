@@ -0,0 +1,88 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Secondary index of declarations: key to declarations (by service id).
+ * Mutations are expected to be serialized by the owning registry, lookups are lock-free.
+ */
+class DeclarationIndex<K extends Comparable<K>> {
+
+    private final ConcurrentNavigableMap<K, ConcurrentMap<Long, DeclarationEntry>> buckets = new ConcurrentSkipListMap<>();
+
+    void add(final K key, final DeclarationEntry entry) {
+        if (key == null) {
+            return;
+        }
+        ConcurrentMap<Long, DeclarationEntry> bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new ConcurrentHashMap<>();
+            buckets.put(key, bucket);
+        }
+        bucket.put(entry.getServiceId(), entry);
+    }
+
+    void remove(final K key, final DeclarationEntry entry) {
+        if (key == null) {
+            return;
+        }
+        ConcurrentMap<Long, DeclarationEntry> bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.remove(entry.getServiceId());
+            if (bucket.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    public Collection<DeclarationEntry> get(final K key) {
+        ConcurrentMap<Long, DeclarationEntry> bucket = buckets.get(key);
+        if (bucket == null) {
+            return Collections.emptySet();
+        }
+        return bucket.values();
+    }
+
+    public int size(final K key) {
+        ConcurrentMap<Long, DeclarationEntry> bucket = buckets.get(key);
+        return (bucket == null) ? 0 : bucket.size();
+    }
+
+    public Collection<K> keys() {
+        return buckets.keySet();
+    }
+
+    /**
+     * Only available for String keys.
+     * @return declarations whose key starts with the given prefix
+     */
+    public Collection<DeclarationEntry> startingWith(final K prefix) {
+        List<DeclarationEntry> selected = new ArrayList<>();
+        for (Map.Entry<K, ConcurrentMap<Long, DeclarationEntry>> bucket : buckets.tailMap(prefix).entrySet()) {
+            if (!bucket.getKey().toString().startsWith(prefix.toString())) {
+                break;
+            }
+            selected.addAll(bucket.getValue().values());
+        }
+        return selected;
+    }
+}
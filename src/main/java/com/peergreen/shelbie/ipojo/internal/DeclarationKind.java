@@ -0,0 +1,40 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import org.apache.felix.ipojo.extender.Declaration;
+import org.apache.felix.ipojo.extender.ExtensionDeclaration;
+import org.apache.felix.ipojo.extender.InstanceDeclaration;
+import org.apache.felix.ipojo.extender.TypeDeclaration;
+
+enum DeclarationKind {
+    EXTENSION,
+    TYPE,
+    INSTANCE;
+
+    static DeclarationKind of(final Declaration declaration) {
+        if (declaration instanceof InstanceDeclaration) {
+            return INSTANCE;
+        }
+        if (declaration instanceof TypeDeclaration) {
+            return TYPE;
+        }
+        if (declaration instanceof ExtensionDeclaration) {
+            return EXTENSION;
+        }
+        throw new IllegalArgumentException("Unsupported declaration: " + declaration);
+    }
+
+    static DeclarationKind parse(final String value) {
+        return valueOf(value.toUpperCase());
+    }
+}
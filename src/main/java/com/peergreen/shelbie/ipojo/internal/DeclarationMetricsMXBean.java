@@ -0,0 +1,38 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.Map;
+
+/**
+ * iPOJO declarations metrics, registered as {@value MetricsExporter#DECLARATIONS_NAME}.
+ */
+public interface DeclarationMetricsMXBean {
+
+    int getBound();
+
+    int getUnbound();
+
+    Map<String, Integer> getBoundByKind();
+
+    Map<String, Integer> getUnboundByKind();
+
+    /**
+     * @return bound declaration count, by bundle id
+     */
+    Map<String, Integer> getBoundByBundle();
+
+    /**
+     * @return unbound declaration count, by bundle id
+     */
+    Map<String, Integer> getUnboundByBundle();
+}
@@ -0,0 +1,480 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.ipojo.annotations.Bind;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Unbind;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.apache.felix.ipojo.extender.Declaration;
+import org.apache.felix.ipojo.extender.ExtensionDeclaration;
+import org.apache.felix.ipojo.extender.InstanceDeclaration;
+import org.apache.felix.ipojo.extender.TypeDeclaration;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Shared, concurrency-safe registry of the iPOJO declarations, indexed by state, bundle, kind,
+ * component name and extension name.
+ * <p>
+ * Declaration's status may change without any service event. Queries refresh the status of the candidates
+ * selected by the other indexes, so their cost stays proportional to the selection. The whole state index is
+ * swept in the background every {@value #POLL_PERIOD} ms, from the first read until the registry was not read
+ * for {@value #IDLE_TIMEOUT} ms: nothing is polled while no command asks, and the state index is only used to
+ * select candidates while it is kept fresh.
+ * Declarations that were never bound are polled on their own during their first {@value #PENDING_TIMEOUT} ms,
+ * to measure their time-to-bound: the polling interval of each grows with its age ({@value #PENDING_POLL_PERIOD}
+ * ms at least, a {@value #PENDING_POLL_RATIO}th of the age otherwise) and at most {@value #MAX_PENDING_POLLS}
+ * are polled per tick. The poller stops once there is no such declaration left.
+ * Index mutations are serialized on the registry, queries never lock.
+ */
+@Component
+@Provides(specifications = DeclarationRegistry.class)
+public class DeclarationRegistry {
+
+    /**
+     * Status polling period (in ms).
+     */
+    public static final long POLL_PERIOD = 1000;
+
+    /**
+     * Time (in ms) without any read after which the background sweep stops.
+     */
+    public static final long IDLE_TIMEOUT = 60000;
+
+    /**
+     * Minimum polling interval (in ms) of the declarations that were never bound, and tick of their poller.
+     */
+    public static final long PENDING_POLL_PERIOD = 50;
+
+    /**
+     * A pending declaration is polled again after this fraction of its age, so the time-to-bound precision
+     * is relative (10%) rather than absolute.
+     */
+    public static final int PENDING_POLL_RATIO = 10;
+
+    /**
+     * Maximum number of pending declarations polled per tick.
+     */
+    public static final int MAX_PENDING_POLLS = 500;
+
+    /**
+     * Age (in ms) after which a declaration that was never bound is no longer polled on its own.
+     * Its time-to-bound is then unknown, only counted by {@link #getLateBound()}.
+     */
+    public static final long PENDING_TIMEOUT = 60000;
+
+    private final ConcurrentNavigableMap<Long, DeclarationEntry> entries = new ConcurrentSkipListMap<>();
+    private final DeclarationIndex<Boolean> byState = new DeclarationIndex<>();
+    private final DeclarationIndex<Long> byBundle = new DeclarationIndex<>();
+    private final DeclarationIndex<DeclarationKind> byKind = new DeclarationIndex<>();
+    private final DeclarationIndex<String> byComponent = new DeclarationIndex<>();
+    private final DeclarationIndex<String> byExtension = new DeclarationIndex<>();
+    private final DeclarationCounts<DeclarationKind> countsByKind = new DeclarationCounts<>();
+    private final DeclarationCounts<Long> countsByBundle = new DeclarationCounts<>();
+
+    /**
+     * Declarations never observed bound so far.
+     */
+    private final ConcurrentMap<Long, DeclarationEntry> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Time-to-bound of every declaration registered since the registry started.
+     */
+    private final LatencyHistogram bindLatencies = new LatencyHistogram();
+
+    /**
+     * Declarations bound after {@link #PENDING_TIMEOUT}, whose time-to-bound was not measured.
+     */
+    private final AtomicLong lateBound = new AtomicLong();
+
+    /**
+     * Time of the last read, and start time of the last refresh of the whole state index.
+     */
+    private volatile long lastRead;
+    private volatile long lastRefresh;
+
+    private ScheduledExecutorService poller;
+
+    /**
+     * Background sweep of the whole state index, {@literal null} while the registry is not read.
+     */
+    private volatile ScheduledFuture<?> sweep;
+
+    /**
+     * Polling of the recent pending declarations, {@literal null} when there is none.
+     */
+    private ScheduledFuture<?> pendingPoll;
+
+    @Validate
+    public synchronized void start() {
+        poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "iPOJO declarations status poller");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Declarations may have been bound before validation
+        if (!pending.isEmpty()) {
+            schedulePendingPoll();
+        }
+    }
+
+    @Invalidate
+    public synchronized void stop() {
+        poller.shutdownNow();
+        poller = null;
+        sweep = null;
+        pendingPoll = null;
+    }
+
+    /**
+     * Update the state index with the current status of every declaration.
+     */
+    public void refresh() {
+        long start = System.currentTimeMillis();
+        refresh(entries.values());
+        lastRefresh = start;
+    }
+
+    /**
+     * Record a read, and start the background sweep if it is not running.
+     * @return {@literal true} if the state index was refreshed during the last sweep periods
+     */
+    private boolean touch() {
+        long now = System.currentTimeMillis();
+        lastRead = now;
+        if (sweep == null) {
+            startSweep();
+        }
+        return (now - lastRefresh) <= (2 * POLL_PERIOD);
+    }
+
+    private synchronized void startSweep() {
+        if ((poller == null) || (sweep != null)) {
+            return;
+        }
+        sweep = poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+                if ((System.currentTimeMillis() - lastRead) > IDLE_TIMEOUT) {
+                    stopSweep();
+                }
+            }
+        }, 0, POLL_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopSweep() {
+        // A read may have happened meanwhile
+        if ((sweep != null) && ((System.currentTimeMillis() - lastRead) > IDLE_TIMEOUT)) {
+            sweep.cancel(false);
+            sweep = null;
+        }
+    }
+
+    private void schedulePendingPoll() {
+        if ((poller == null) || (pendingPoll != null)) {
+            return;
+        }
+        pendingPoll = poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                pollPending();
+            }
+        }, PENDING_POLL_PERIOD, PENDING_POLL_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    private void pollPending() {
+        long now = System.currentTimeMillis();
+        long oldest = now - PENDING_TIMEOUT;
+        boolean recent = false;
+        int polled = 0;
+        for (DeclarationEntry entry : pending.values()) {
+            if (entry.getRegistrationTime() >= oldest) {
+                recent = true;
+                // Others are polled during the next ticks
+                if ((polled < MAX_PENDING_POLLS) && (entry.nextPoll <= now)) {
+                    polled++;
+                    long age = now - entry.getRegistrationTime();
+                    entry.nextPoll = now + Math.max(PENDING_POLL_PERIOD, age / PENDING_POLL_RATIO);
+                    refresh(entry);
+                }
+            }
+        }
+        if (!recent) {
+            stopPendingPoll();
+        }
+    }
+
+    private synchronized void stopPendingPoll() {
+        // A recent declaration may have been added meanwhile
+        long oldest = System.currentTimeMillis() - PENDING_TIMEOUT;
+        for (DeclarationEntry entry : pending.values()) {
+            if (entry.getRegistrationTime() >= oldest) {
+                return;
+            }
+        }
+        if (pendingPoll != null) {
+            pendingPoll.cancel(false);
+            pendingPoll = null;
+        }
+    }
+
+    private void refresh(final Iterable<DeclarationEntry> selected) {
+        for (DeclarationEntry entry : selected) {
+            refresh(entry);
+        }
+    }
+
+    private void refresh(final DeclarationEntry entry) {
+        boolean bound = entry.getDeclaration().getStatus().isBound();
+        if (bound != entry.isBound()) {
+            updateState(entry, bound);
+        }
+    }
+
+    private synchronized void updateState(final DeclarationEntry entry, final boolean bound) {
+        // Entry may have been removed concurrently
+        if (entries.get(entry.getServiceId()) != entry) {
+            return;
+        }
+        byState.remove(entry.isBound(), entry);
+        count(entry, -1);
+        entry.bound = bound;
+        byState.add(bound, entry);
+        count(entry, 1);
+        if (bound && (entry.boundTime < 0)) {
+            entry.boundTime = System.currentTimeMillis();
+            bound(entry);
+        }
+    }
+
+    private void bound(final DeclarationEntry entry) {
+        pending.remove(entry.getServiceId());
+        long timeToBound = entry.getBoundTime() - entry.getRegistrationTime();
+        if (timeToBound <= PENDING_TIMEOUT) {
+            bindLatencies.record(timeToBound);
+        } else {
+            // Only observed by a later refresh
+            entry.lateBound = true;
+            lateBound.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return time-to-bound distribution of the declarations that got bound within {@link #PENDING_TIMEOUT}
+     */
+    public LatencyHistogram getBindLatencies() {
+        touch();
+        return bindLatencies;
+    }
+
+    /**
+     * @return number of declarations bound after {@link #PENDING_TIMEOUT} (time-to-bound not measured)
+     */
+    public long getLateBound() {
+        touch();
+        return lateBound.get();
+    }
+
+    /**
+     * @return declarations never observed bound so far
+     */
+    public Collection<DeclarationEntry> getPending() {
+        touch();
+        return pending.values();
+    }
+
+    /**
+     * @return every registered declaration, sorted by service id
+     */
+    public Collection<DeclarationEntry> getAll() {
+        touch();
+        return entries.values();
+    }
+
+    public DeclarationEntry get(final long serviceId) {
+        return entries.get(serviceId);
+    }
+
+    /**
+     * @return number of declarations in the given state (as last observed, reading it polls nothing)
+     */
+    public int count(final boolean bound) {
+        return byState.size(bound);
+    }
+
+    /**
+     * @return bound/unbound counts per declaration kind (as last observed, reading them polls nothing)
+     */
+    public DeclarationCounts<DeclarationKind> getCountsByKind() {
+        return countsByKind;
+    }
+
+    /**
+     * @return bound/unbound counts per bundle id (as last observed, reading them polls nothing)
+     */
+    public DeclarationCounts<Long> getCountsByBundle() {
+        return countsByBundle;
+    }
+
+    public int size() {
+        return byState.size(true) + byState.size(false);
+    }
+
+    /**
+     * Select the declarations matching the filter. Candidates are taken from the most selective index (the state
+     * index only while the background sweep keeps it fresh) and their status is refreshed, so the cost is
+     * proportional to the size of the smallest matching bucket rather than to the registry size.
+     * @return matching declarations, sorted by service id
+     */
+    public List<DeclarationEntry> query(final DeclarationFilter filter) {
+        boolean fresh = touch();
+        // null stands for every declaration (whose size is costly to compute)
+        Collection<DeclarationEntry> candidates = null;
+        if ((filter.bound != null) && fresh) {
+            candidates = smallest(candidates, byState.get(filter.bound));
+        }
+        if (filter.bundleId != null) {
+            candidates = smallest(candidates, byBundle.get(filter.bundleId));
+        }
+        if (filter.kind != null) {
+            candidates = smallest(candidates, byKind.get(filter.kind));
+        }
+        if (filter.extensionName != null) {
+            candidates = smallest(candidates, byExtension.get(filter.extensionName));
+        }
+        if (filter.getComponentName() != null) {
+            if (!filter.isComponentPattern()) {
+                candidates = smallest(candidates, byComponent.get(filter.getComponentName()));
+            } else if (!filter.getComponentPrefix().isEmpty()) {
+                candidates = smallest(candidates, byComponent.startingWith(filter.getComponentPrefix()));
+            }
+        }
+
+        List<DeclarationEntry> selected = new ArrayList<>();
+        for (DeclarationEntry entry : (candidates == null) ? entries.values() : candidates) {
+            // Only the candidates are refreshed, others are left to the background sweep
+            refresh(entry);
+            if (filter.matches(entry)) {
+                selected.add(entry);
+            }
+        }
+        if (candidates != null) {
+            // Entries are already sorted when coming from the main map
+            Collections.sort(selected, DeclarationEntry.BY_SERVICE_ID);
+        }
+        return selected;
+    }
+
+    private static Collection<DeclarationEntry> smallest(final Collection<DeclarationEntry> first,
+                                                         final Collection<DeclarationEntry> second) {
+        if ((first == null) || (second.size() < first.size())) {
+            return second;
+        }
+        return first;
+    }
+
+    private synchronized void add(final Declaration declaration, final ServiceReference reference) {
+        DeclarationEntry entry = new DeclarationEntry(reference, declaration);
+        DeclarationEntry old = entries.put(entry.getServiceId(), entry);
+        if (old != null) {
+            unindex(old);
+        }
+        byState.add(entry.isBound(), entry);
+        byBundle.add(entry.getBundleId(), entry);
+        byKind.add(entry.getKind(), entry);
+        byComponent.add(entry.getComponentName(), entry);
+        byExtension.add(entry.getExtensionName(), entry);
+        count(entry, 1);
+        if (entry.isBound()) {
+            bound(entry);
+        } else {
+            pending.put(entry.getServiceId(), entry);
+            schedulePendingPoll();
+        }
+    }
+
+    private synchronized void remove(final ServiceReference reference) {
+        long serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
+        DeclarationEntry entry = entries.remove(serviceId);
+        if (entry != null) {
+            unindex(entry);
+            pending.remove(serviceId);
+        }
+    }
+
+    private void unindex(final DeclarationEntry entry) {
+        byState.remove(entry.isBound(), entry);
+        byBundle.remove(entry.getBundleId(), entry);
+        byKind.remove(entry.getKind(), entry);
+        byComponent.remove(entry.getComponentName(), entry);
+        byExtension.remove(entry.getExtensionName(), entry);
+        count(entry, -1);
+    }
+
+    private void count(final DeclarationEntry entry, final int delta) {
+        countsByKind.add(entry.getKind(), entry.isBound(), delta);
+        countsByBundle.add(entry.getBundleId(), entry.isBound(), delta);
+    }
+
+    @Bind(aggregate = true, optional = true)
+    public void bindTypeDeclaration(TypeDeclaration declaration, ServiceReference reference) {
+        add(declaration, reference);
+    }
+
+    @Unbind
+    public void unbindTypeDeclaration(ServiceReference reference) {
+        remove(reference);
+    }
+
+    @Bind(aggregate = true, optional = true)
+    public void bindInstanceDeclaration(InstanceDeclaration declaration, ServiceReference reference) {
+        add(declaration, reference);
+    }
+
+    @Unbind
+    public void unbindInstanceDeclaration(ServiceReference reference) {
+        remove(reference);
+    }
+
+    @Bind(aggregate = true, optional = true)
+    public void bindExtensionDeclaration(ExtensionDeclaration declaration, ServiceReference reference) {
+        add(declaration, reference);
+    }
+
+    @Unbind
+    public void unbindExtensionDeclaration(ServiceReference reference) {
+        remove(reference);
+    }
+
+}
@@ -11,24 +11,19 @@
 
 package com.peergreen.shelbie.ipojo.internal;
 
-import java.util.Map;
-import java.util.TreeMap;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
 
 import org.apache.felix.gogo.commands.Command;
 import org.apache.felix.gogo.commands.Option;
-import org.apache.felix.ipojo.annotations.Bind;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.HandlerDeclaration;
-import org.apache.felix.ipojo.annotations.Unbind;
+import org.apache.felix.ipojo.annotations.Requires;
 import org.apache.felix.ipojo.extender.Declaration;
-import org.apache.felix.ipojo.extender.ExtensionDeclaration;
-import org.apache.felix.ipojo.extender.InstanceDeclaration;
 import org.apache.felix.ipojo.extender.Status;
-import org.apache.felix.ipojo.extender.TypeDeclaration;
 import org.apache.felix.service.command.CommandSession;
 import org.fusesource.jansi.Ansi;
-import org.osgi.framework.Constants;
-import org.osgi.framework.ServiceReference;
 
 @Component
 @Command(name = "declarations",
@@ -43,48 +38,141 @@ public class DeclarationsAction extends AbstractDeclarationAction {
             required = false)
     private boolean veryVerbose = false;
 
+    @Option(name = "--bound",
+            description = "Only display bound declarations",
+            required = false)
+    private boolean bound = false;
+
+    @Option(name = "--unbound",
+            description = "Only display unbound declarations",
+            required = false)
+    private boolean unbound = false;
+
+    @Option(name = "-b",
+            aliases = "--bundle",
+            description = "Only display declarations from the given bundle ID",
+            required = false)
+    private Long bundleId;
+
+    @Option(name = "-k",
+            aliases = "--kind",
+            description = "Only display declarations of the given kind (extension, type or instance)",
+            required = false)
+    private String kind;
+
+    @Option(name = "-c",
+            aliases = "--component",
+            description = "Only display type/instance declarations of the given component name ('*' wildcards allowed)",
+            required = false)
+    private String componentName;
 
-    private Map<ServiceReference, Declaration> declarations = new TreeMap<ServiceReference, Declaration>();
+    @Option(name = "--version",
+            description = "Only display type/instance declarations of the given component version",
+            required = false)
+    private String componentVersion;
+
+    @Option(name = "-e",
+            aliases = "--extension",
+            description = "Only display extension declarations providing (or type declarations requiring) the given extension",
+            required = false)
+    private String extensionName;
+
+    @Option(name = "--offset",
+            description = "Number of matching declarations to skip (0 by default)",
+            required = false)
+    private int offset = 0;
+
+    @Option(name = "--limit",
+            description = "Maximum number of declarations to display (all by default)",
+            required = false)
+    private int limit = -1;
+
+    private final DeclarationRegistry registry;
+
+    public DeclarationsAction(final @Requires DeclarationRegistry registry) {
+        this.registry = registry;
+    }
 
     public Object execute(final CommandSession session) throws Exception {
 
-        Ansi buffer = Ansi.ansi();
-
-        int bound = 0;
-        int unbound = 0;
-        for (Map.Entry<ServiceReference, Declaration> entry : declarations.entrySet()) {
-            Declaration declaration = entry.getValue();
-            if (!declaration.getStatus().isBound()) {
-                printDeclarationLine(buffer, entry.getKey(), declaration);
-                unbound++;
-            } else {
-                if (veryVerbose) {
-                    printDeclarationLine(buffer, entry.getKey(), declaration);
-                }
-                bound++;
-            }
+        OutputFormat outputFormat = OutputFormat.parse(format);
+        if (outputFormat != OutputFormat.TEXT) {
+            writeRecords(RecordWriter.of(outputFormat, Consoles.writerOf(session), DECLARATION_COLUMNS));
+            return null;
         }
 
-        Ansi decorate = Ansi.ansi();
-        decorate.render("@|green %d|@ Declaration(s) are bound%n", bound);
-        decorate.render("@|yellow %d|@ Declaration(s) are unbound%n", unbound);
-        if (!buffer.toString().isEmpty()) {
-            decorate.render("@|bold Bnd |   ID |                 Type |  Status | Message|@");
-            decorate.newline();
-            decorate.a(buffer);
-        }
+        PrintStream out = Consoles.of(session);
+
+        // Query first: counts are the last observed ones, they then include the changes noticed by the query
+        List<DeclarationEntry> entries = registry.query(createFilter());
 
+        Ansi header = Ansi.ansi();
+        header.render("@|green %d|@ Declaration(s) are bound%n", registry.count(true));
+        header.render("@|yellow %d|@ Declaration(s) are unbound%n", registry.count(false));
+        out.print(header);
 
-        System.out.print(decorate);
+        int from = Math.min(Math.max(offset, 0), entries.size());
+        int to = (limit < 0) ? entries.size() : Math.min(from + limit, entries.size());
+
+        if (from < to) {
+            out.print(Ansi.ansi().render("@|bold Bnd |   ID |                 Type |  Status | Message|@").newline());
+        }
+        // Rows are streamed as they are rendered
+        for (DeclarationEntry entry : entries.subList(from, to)) {
+            Ansi buffer = Ansi.ansi();
+            printDeclarationLine(buffer, entry);
+            out.print(buffer);
+        }
+        if ((from != 0) || (to != entries.size())) {
+            out.print(Ansi.ansi().render("Displayed %d to %d of %d matching declaration(s)%n",
+                                         from + 1,
+                                         to,
+                                         entries.size()));
+        }
+
+        out.flush();
         return null;
     }
 
-    private void printDeclarationLine(final Ansi buffer, final ServiceReference reference, final Declaration declaration) {
+    /**
+     * Stream one record per selected declaration, without headers nor counts.
+     */
+    private void writeRecords(final RecordWriter records) throws IOException {
+        List<DeclarationEntry> entries = registry.query(createFilter());
+        int from = Math.min(Math.max(offset, 0), entries.size());
+        int to = (limit < 0) ? entries.size() : Math.min(from + limit, entries.size());
+        for (DeclarationEntry entry : entries.subList(from, to)) {
+            writeDeclaration(records, entry);
+        }
+        records.flush();
+    }
 
-        long bundleId = reference.getBundle().getBundleId();
-        long serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
+    private DeclarationFilter createFilter() {
+        DeclarationFilter filter = new DeclarationFilter();
+        if (bound != unbound) {
+            filter.bound = bound;
+        } else if (!bound && !veryVerbose) {
+            // Historical behavior: only unbound declarations, unless very verbose
+            filter.bound = false;
+        }
+        filter.bundleId = bundleId;
+        if (kind != null) {
+            filter.kind = DeclarationKind.parse(kind);
+        }
+        filter.setComponentName(componentName);
+        filter.componentVersion = componentVersion;
+        filter.extensionName = extensionName;
+        return filter;
+    }
+
+    private void printDeclarationLine(final Ansi buffer, final DeclarationEntry entry) {
+
+        Declaration declaration = entry.getDeclaration();
         String type = declaration.getClass().getSimpleName();
-        buffer.render("%-3d | %-4d | %20s | ", bundleId, serviceId, type.substring(0, 20));
+        buffer.render("%-3d | %-4d | %20s | ",
+                      entry.getBundleId(),
+                      entry.getServiceId(),
+                      (type.length() > 20) ? type.substring(0, 20) : type);
         Status status = declaration.getStatus();
         printColoredStatus(buffer, status);
         buffer.render(" | %s%n", status.getMessage());
@@ -96,34 +184,4 @@ public class DeclarationsAction extends AbstractDeclarationAction {
         printDetails(buffer, declaration);
     }
 
-    @Bind(aggregate = true, optional = true)
-    public void bindTypeDeclaration(TypeDeclaration declaration, ServiceReference reference) {
-        declarations.put(reference, declaration);
-    }
-
-    @Unbind
-    public void unbindTypeDeclaration(ServiceReference reference) {
-        declarations.remove(reference);
-    }
-
-    @Bind(aggregate = true, optional = true)
-    public void bindInstanceDeclaration(InstanceDeclaration declaration, ServiceReference reference) {
-        declarations.put(reference, declaration);
-    }
-
-    @Unbind
-    public void unbindInstanceDeclaration(ServiceReference reference) {
-        declarations.remove(reference);
-    }
-
-    @Bind(aggregate = true, optional = true)
-    public void bindExtensionDeclaration(ExtensionDeclaration declaration, ServiceReference reference) {
-        declarations.put(reference, declaration);
-    }
-
-    @Unbind
-    public void unbindExtensionDeclaration(ServiceReference reference) {
-        declarations.remove(reference);
-    }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.ipojo.extender.queue.QueueListener;
+
+class EmptyQueueListener implements QueueListener {
+
+    @Override
+    public void enlisted(final JobInfo info) {
+
+    }
+
+    @Override
+    public void started(final JobInfo info) {
+
+    }
+
+    @Override
+    public void executed(final JobInfo info, final Object o) {
+        ended(info);
+    }
+
+    @Override
+    public void failed(final JobInfo info, final Throwable throwable) {
+        ended(info);
+    }
+
+    protected void ended(final JobInfo info) {
+
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+
+/**
+ * Built-in {@link GroupingKey}s, parsed from their textual form:
+ * {@literal type}, {@literal bundle} or {@literal regex:<pattern>}.
+ */
+final class GroupingKeys {
+
+    public static final GroupingKey JOB_TYPE = new GroupingKey() {
+        @Override
+        public String keyOf(final JobInfo info) {
+            return String.valueOf(info.getJobType());
+        }
+
+        @Override
+        public String getName() {
+            return "job-type";
+        }
+    };
+
+    /**
+     * Bundle symbolic name (or id) as mentioned in job descriptions.
+     */
+    private static final String BUNDLE_PATTERN = "(?i)bundle\\W*([\\w.\\-]+)";
+
+    private static final String NO_MATCH = "(no match)";
+
+    private GroupingKeys() {
+    }
+
+    /**
+     * @param specifications key specifications, combined in the given order
+     */
+    static GroupingKey parse(final List<String> specifications) {
+        if ((specifications == null) || specifications.isEmpty()) {
+            return JOB_TYPE;
+        }
+        List<GroupingKey> keys = new ArrayList<>();
+        for (String specification : specifications) {
+            keys.add(parse(specification));
+        }
+        return (keys.size() == 1) ? keys.get(0) : new CombinedKey(keys);
+    }
+
+    static GroupingKey parse(final String specification) {
+        if ("type".equals(specification)) {
+            return JOB_TYPE;
+        }
+        if ("bundle".equals(specification)) {
+            return new RegexKey("bundle", Pattern.compile(BUNDLE_PATTERN));
+        }
+        if (specification.startsWith("regex:")) {
+            String regex = specification.substring("regex:".length());
+            return new RegexKey(specification, Pattern.compile(regex));
+        }
+        throw new IllegalArgumentException("Unknown grouping key '" + specification
+                                           + "' (type, bundle or regex:<pattern> expected)");
+    }
+
+    /**
+     * Matches the pattern in the job description, the key is the first group (or the whole match without group).
+     */
+    private static class RegexKey implements GroupingKey {
+        private final String name;
+        private final Pattern pattern;
+
+        RegexKey(final String name, final Pattern pattern) {
+            this.name = name;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public String keyOf(final JobInfo info) {
+            String description = info.getDescription();
+            if (description == null) {
+                return NO_MATCH;
+            }
+            Matcher matcher = pattern.matcher(description);
+            if (!matcher.find()) {
+                return NO_MATCH;
+            }
+            String key = (matcher.groupCount() > 0) ? matcher.group(1) : matcher.group();
+            return (key != null) ? key : NO_MATCH;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static class CombinedKey implements GroupingKey {
+        private final List<GroupingKey> keys;
+
+        CombinedKey(final List<GroupingKey> keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public String keyOf(final JobInfo info) {
+            StringBuilder key = new StringBuilder();
+            for (GroupingKey part : keys) {
+                if (key.length() > 0) {
+                    key.append(" / ");
+                }
+                key.append(part.keyOf(info));
+            }
+            return key.toString();
+        }
+
+        @Override
+        public String getName() {
+            StringBuilder name = new StringBuilder();
+            for (GroupingKey part : keys) {
+                if (name.length() > 0) {
+                    name.append(" / ");
+                }
+                name.append(part.getName());
+            }
+            return name.toString();
+        }
+    }
+}
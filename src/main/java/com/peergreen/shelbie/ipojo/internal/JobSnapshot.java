@@ -0,0 +1,85 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+
+/**
+ * Immutable copy of a finished job's timings.
+ * It does not retain the original {@link JobInfo} (nor whatever the job captured).
+ */
+final class JobSnapshot implements JobInfo {
+
+    private final String jobType;
+    private final String description;
+    private final long enlistmentTime;
+    private final long waitDuration;
+    private final long executionDuration;
+
+    JobSnapshot(final String jobType,
+                final String description,
+                final long enlistmentTime,
+                final long waitDuration,
+                final long executionDuration) {
+        this.jobType = jobType;
+        this.description = description;
+        this.enlistmentTime = enlistmentTime;
+        this.waitDuration = waitDuration;
+        this.executionDuration = executionDuration;
+    }
+
+    static JobSnapshot of(final JobInfo info) {
+        if (info instanceof JobSnapshot) {
+            return (JobSnapshot) info;
+        }
+        return new JobSnapshot(info.getJobType(),
+                               info.getDescription(),
+                               info.getEnlistmentTime(),
+                               info.getWaitDuration(),
+                               info.getExecutionDuration());
+    }
+
+    @Override
+    public long getEnlistmentTime() {
+        return enlistmentTime;
+    }
+
+    @Override
+    public long getStartTime() {
+        return enlistmentTime + waitDuration;
+    }
+
+    @Override
+    public long getEndTime() {
+        return enlistmentTime + waitDuration + executionDuration;
+    }
+
+    @Override
+    public long getWaitDuration() {
+        return waitDuration;
+    }
+
+    @Override
+    public long getExecutionDuration() {
+        return executionDuration;
+    }
+
+    @Override
+    public String getJobType() {
+        return jobType;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free, fixed capacity ring of the most recently finished jobs.
+ * Writers claim a slot with a single atomic increment, older entries are silently overwritten.
+ */
+class JobSnapshotRing {
+
+    private final AtomicReferenceArray<JobSnapshot> slots;
+    private final AtomicLong sequence = new AtomicLong();
+    private final int mask;
+    private volatile long floor = 0;
+
+    public JobSnapshotRing(final int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of 2: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    public void add(final JobSnapshot snapshot) {
+        long index = sequence.getAndIncrement();
+        slots.set((int) (index & mask), snapshot);
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return number of jobs recorded since creation (or last {@link #clear()}), including overwritten ones
+     */
+    public long recorded() {
+        return sequence.get() - floor;
+    }
+
+    /**
+     * Forget every recorded job (slots are lazily overwritten).
+     */
+    public void clear() {
+        floor = sequence.get();
+    }
+
+    /**
+     * @param time lower bound (inclusive, in ms) of job's end time
+     * @return retained jobs that finished at or after the given time, newest first
+     */
+    public List<JobSnapshot> since(final long time) {
+        List<JobSnapshot> selected = new ArrayList<>();
+        long head = sequence.get();
+        long oldest = Math.max(floor, head - slots.length());
+        for (long index = head - 1; index >= oldest; index--) {
+            JobSnapshot snapshot = slots.get((int) (index & mask));
+            // Slot may have been claimed but not yet written
+            if (snapshot != null && snapshot.getEndTime() >= time) {
+                selected.add(snapshot);
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Execution and wait percentiles (in ms) of a job type, exposed as JMX composite data.
+ */
+public class JobTypeMetrics {
+
+    private final long count;
+    private final long meanExecution;
+    private final long p50Execution;
+    private final long p99Execution;
+    private final long maxExecution;
+    private final long meanWait;
+    private final long p99Wait;
+
+    @ConstructorProperties({"count", "meanExecution", "p50Execution", "p99Execution", "maxExecution",
+                            "meanWait", "p99Wait"})
+    public JobTypeMetrics(final long count,
+                          final long meanExecution,
+                          final long p50Execution,
+                          final long p99Execution,
+                          final long maxExecution,
+                          final long meanWait,
+                          final long p99Wait) {
+        this.count = count;
+        this.meanExecution = meanExecution;
+        this.p50Execution = p50Execution;
+        this.p99Execution = p99Execution;
+        this.maxExecution = maxExecution;
+        this.meanWait = meanWait;
+        this.p99Wait = p99Wait;
+    }
+
+    static JobTypeMetrics of(final PerJobInfos infos) {
+        return new JobTypeMetrics(infos.execution.getCount(),
+                                  infos.execution.getMean(),
+                                  infos.execution.getValueAtPercentile(50),
+                                  infos.execution.getValueAtPercentile(99),
+                                  infos.execution.getMax(),
+                                  infos.waiting.getMean(),
+                                  infos.waiting.getValueAtPercentile(99));
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanExecution() {
+        return meanExecution;
+    }
+
+    public long getP50Execution() {
+        return p50Execution;
+    }
+
+    public long getP99Execution() {
+        return p99Execution;
+    }
+
+    public long getMaxExecution() {
+        return maxExecution;
+    }
+
+    public long getMeanWait() {
+        return meanWait;
+    }
+
+    public long getP99Wait() {
+        return p99Wait;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+/**
+ * Layout of the queue journal file.
+ * <pre>
+ * [header (64 bytes)][dictionary (interned job types)][ring of fixed-size event records]
+ *
+ * header     : int magic, int version, int dictionary capacity, int record capacity,
+ *              long creation time, int dictionary used bytes
+ * dictionary : sequence of (int length, UTF-8 bytes, int id), the id is written last
+ * record     : long sequence (1-based, written last), int kind, int type id, int description length,
+ *              int thread id, long enlistment time, long wait duration, long execution duration,
+ *              description (first {@value #MAX_DESCRIPTION_CHARS} UTF-16 chars)
+ * </pre>
+ * Record {@code n} (sequence {@code n + 1}) is stored in slot {@code n % record capacity}.
+ * Descriptions are nearly unique, they are stored in their record rather than interned: the description length
+ * is the one of the whole description ({@code -1} for none), longer ones are truncated.
+ */
+final class JournalFormat {
+
+    static final int MAGIC = 0x49504a51;
+    static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 64;
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int DICTIONARY_CAPACITY_OFFSET = 8;
+    static final int RECORD_CAPACITY_OFFSET = 12;
+    static final int CREATION_OFFSET = 16;
+    static final int DICTIONARY_USED_OFFSET = 24;
+
+    /**
+     * Number of description chars kept in each record.
+     */
+    static final int MAX_DESCRIPTION_CHARS = 56;
+
+    static final int RECORD_SIZE = 48 + (2 * MAX_DESCRIPTION_CHARS);
+    static final int SEQUENCE_OFFSET = 0;
+    static final int KIND_OFFSET = 8;
+    static final int TYPE_OFFSET = 12;
+    static final int DESCRIPTION_LENGTH_OFFSET = 16;
+    static final int THREAD_OFFSET = 20;
+    static final int ENLISTMENT_OFFSET = 24;
+    static final int WAIT_OFFSET = 32;
+    static final int EXECUTION_OFFSET = 40;
+    static final int DESCRIPTION_OFFSET = 48;
+
+    static final int KIND_EXECUTED = 1;
+    static final int KIND_FAILED = 2;
+
+    /**
+     * Id of job types that could not be interned (dictionary full).
+     */
+    static final int UNKNOWN_ID = 0;
+    static final String UNKNOWN = "<unknown>";
+
+    /**
+     * Longer job types are truncated before being interned.
+     */
+    static final int MAX_STRING_LENGTH = 1024;
+
+    private JournalFormat() {
+    }
+}
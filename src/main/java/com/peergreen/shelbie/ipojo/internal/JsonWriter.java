@@ -0,0 +1,202 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON writer: values are written as soon as they are given, no document is kept in memory.
+ * Only the nesting state (one flag per level) is tracked, to place separators.
+ */
+class JsonWriter implements Closeable, Flushable {
+
+    private static final int MAX_DEPTH = 64;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+
+    /**
+     * Whether the container at the given depth already holds an element.
+     */
+    private final boolean[] filled = new boolean[MAX_DEPTH];
+    private int depth = 0;
+
+    /**
+     * A name has just been written, the next value must not be preceded by a separator.
+     */
+    private boolean named = false;
+
+    JsonWriter(final Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(final String name) throws IOException {
+        separate();
+        string(name);
+        out.write(':');
+        named = true;
+        return this;
+    }
+
+    public JsonWriter value(final String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(final long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(final double value) throws IOException {
+        separate();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.write("null");
+        } else {
+            out.write(Double.toString(value));
+        }
+        return this;
+    }
+
+    public JsonWriter value(final boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separate();
+        out.write("null");
+        return this;
+    }
+
+    /**
+     * Shortcut for {@code name(name).value(value)}.
+     */
+    public JsonWriter field(final String name, final String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(final String name, final long value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(final String name, final double value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public JsonWriter field(final String name, final boolean value) throws IOException {
+        return name(name).value(value);
+    }
+
+    private JsonWriter open(final char c) throws IOException {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nesting deeper than " + MAX_DEPTH);
+        }
+        separate();
+        out.write(c);
+        filled[depth++] = false;
+        return this;
+    }
+
+    private JsonWriter close(final char c) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("No JSON container to close");
+        }
+        depth--;
+        out.write(c);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (named) {
+            named = false;
+            return;
+        }
+        if (depth > 0) {
+            if (filled[depth - 1]) {
+                out.write(',');
+            }
+            filled[depth - 1] = true;
+        }
+    }
+
+    private void string(final String value) throws IOException {
+        out.write('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if ((c == '"') || (c == '\\') || (c < 0x20)) {
+                out.write(value, start, i - start);
+                start = i + 1;
+                switch (c) {
+                    case '"':
+                        out.write("\\\"");
+                        break;
+                    case '\\':
+                        out.write("\\\\");
+                        break;
+                    case '\n':
+                        out.write("\\n");
+                        break;
+                    case '\r':
+                        out.write("\\r");
+                        break;
+                    case '\t':
+                        out.write("\\t");
+                        break;
+                    default:
+                        out.write("\\u00");
+                        out.write(HEX[c >> 4]);
+                        out.write(HEX[c & 0xF]);
+                }
+            }
+        }
+        out.write(value, start, length - start);
+        out.write('"');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
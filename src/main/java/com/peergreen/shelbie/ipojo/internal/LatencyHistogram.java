@@ -0,0 +1,155 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, log-bucketed histogram of durations (HDR-style).
+ * Values from 0 to {@value #SUB_BUCKET_COUNT} are recorded exactly, above that each power of 2 range
+ * is split into {@value #HALF_SUB_BUCKET_COUNT} linear sub-buckets, which bounds the relative error
+ * of any reported value to {@link #RELATIVE_ERROR}.
+ * Memory footprint and recording cost do not depend on the number of recorded values.
+ * Recording is thread safe and lock-free: buckets are atomic, count and total are striped.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+
+    /**
+     * Greatest recordable value (about one year in ms), larger values are clamped.
+     */
+    static final long HIGHEST_TRACKABLE_VALUE = (1L << 35) - 1;
+
+    /**
+     * Maximal relative error of a reported percentile.
+     */
+    static final double RELATIVE_ERROR = 1.0 / HALF_SUB_BUCKET_COUNT;
+
+    private static final int BUCKETS = indexOf(HIGHEST_TRACKABLE_VALUE) + 1;
+
+    /**
+     * Approximate memory footprint (in bytes) of a histogram.
+     */
+    static final int FOOTPRINT = (BUCKETS * 8) + (2 * StripedCounter.FOOTPRINT) + 1024;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter total = new StripedCounter();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0);
+
+    public void record(final long duration) {
+        long value = Math.min(Math.max(duration, 0), HIGHEST_TRACKABLE_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        total.add(value);
+        updateMin(value);
+        updateMax(value);
+    }
+
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucket = other.counts.get(i);
+            if (bucket != 0) {
+                counts.addAndGet(i, bucket);
+            }
+        }
+        count.add(other.count.sum());
+        total.add(other.total.sum());
+        updateMin(other.min.get());
+        updateMax(other.max.get());
+    }
+
+    private void updateMin(final long value) {
+        long current = min.get();
+        while ((value < current) && !min.compareAndSet(current, value)) {
+            current = min.get();
+        }
+    }
+
+    private void updateMax(final long value) {
+        long current = max.get();
+        while ((value > current) && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getMin() {
+        long value = min.get();
+        return (value == Long.MAX_VALUE) ? 0 : value;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long count = getCount();
+        return (count == 0) ? 0 : (getTotal() / count);
+    }
+
+    /**
+     * @param percentile requested percentile, between 0 and 100
+     * @return the highest value equivalent (within {@link #RELATIVE_ERROR}) to the value at the given percentile
+     */
+    public long getValueAtPercentile(final double percentile) {
+        // Work on a copy so that concurrent recordings do not skew the ranks
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long max = getMax();
+        long rank = Math.max(1, (long) Math.ceil((percentile / 100.0) * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int indexOf(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return ((shift + 1) * HALF_SUB_BUCKET_COUNT) + (int) ((value >>> shift) - HALF_SUB_BUCKET_COUNT);
+    }
+
+    static long highestEquivalentValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index / HALF_SUB_BUCKET_COUNT) - 1;
+        long subBucket = (index % HALF_SUB_BUCKET_COUNT) + HALF_SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.COMPLETED;
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.ENLISTED;
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.FAILED;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
+
+/**
+ * Registers the queue and declaration metrics MBeans on the platform MBeanServer.
+ * Attributes are read from counters maintained by the recorder and the registry (declaration counts as last
+ * observed, reading them does not poll any declaration); the derived values (rates, percentiles, per job type
+ * maps) are computed at most once per {@value #REFRESH_PERIOD} ms, so frequent polling costs almost nothing.
+ */
+@Component
+public class MetricsExporter {
+
+    public static final String QUEUE_NAME = "com.peergreen.shelbie.ipojo:type=Queue";
+    public static final String DECLARATIONS_NAME = "com.peergreen.shelbie.ipojo:type=Declarations";
+
+    static final long REFRESH_PERIOD = 1000;
+
+    private final QueueEventRecorder m_recorder;
+    private final DeclarationRegistry m_registry;
+    private final QueueRegistry m_queues;
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    public MetricsExporter(final @Requires QueueEventRecorder m_recorder,
+                           final @Requires DeclarationRegistry m_registry,
+                           final @Requires QueueRegistry m_queues) {
+        this.m_recorder = m_recorder;
+        this.m_registry = m_registry;
+        this.m_queues = m_queues;
+    }
+
+    @Validate
+    public void start() throws JMException {
+        // A previous instance may have left its MBeans registered
+        stop();
+        server.registerMBean(new StandardMBean(new QueueMetrics(), QueueMetricsMXBean.class, true),
+                             new ObjectName(QUEUE_NAME));
+        boolean registered = false;
+        try {
+            server.registerMBean(new StandardMBean(new DeclarationMetrics(), DeclarationMetricsMXBean.class, true),
+                                 new ObjectName(DECLARATIONS_NAME));
+            registered = true;
+        } finally {
+            if (!registered) {
+                // Do not leave the queue MBean behind
+                stop();
+            }
+        }
+    }
+
+    @Invalidate
+    public void stop() throws JMException {
+        for (String name : new String[] {QUEUE_NAME, DECLARATIONS_NAME}) {
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        }
+    }
+
+    /**
+     * Derived queue values, computed at once.
+     */
+    private static class QueueSnapshot {
+        final long time = System.currentTimeMillis();
+        final RateCounters.Rates rates;
+        final Map<String, JobTypeMetrics> jobTypes;
+        final long since;
+
+        QueueSnapshot(final QueueEventRecorder recorder) {
+            this.rates = recorder.getRates().getRates(60);
+            QueueStatistics statistics = recorder.getStatistics();
+            this.since = statistics.getSince();
+            Map<String, JobTypeMetrics> types = new TreeMap<>();
+            for (PerJobInfos infos : statistics.partitioned.partitions.values()) {
+                types.put(infos.key, JobTypeMetrics.of(infos));
+            }
+            this.jobTypes = Collections.unmodifiableMap(types);
+        }
+    }
+
+    private class QueueMetrics implements QueueMetricsMXBean {
+
+        private volatile QueueSnapshot snapshot;
+
+        private QueueSnapshot snapshot() {
+            QueueSnapshot current = snapshot;
+            if ((current == null) || (System.currentTimeMillis() - current.time >= REFRESH_PERIOD)) {
+                // Concurrent refreshes are harmless
+                current = new QueueSnapshot(m_recorder);
+                snapshot = current;
+            }
+            return current;
+        }
+
+        @Override
+        public long getExecuting() {
+            long executing = 0;
+            for (BoundQueue queue : m_queues.getQueues()) {
+                executing += queue.getService().getCurrents();
+            }
+            return executing;
+        }
+
+        @Override
+        public long getWaiting() {
+            return m_queues.getWaiters();
+        }
+
+        @Override
+        public long getFinished() {
+            long finished = 0;
+            for (BoundQueue queue : m_queues.getQueues()) {
+                finished += queue.getService().getFinished();
+            }
+            return finished;
+        }
+
+        @Override
+        public double getEnlistedPerSecond() {
+            return snapshot().rates.perSecond(ENLISTED);
+        }
+
+        @Override
+        public double getCompletedPerSecond() {
+            return snapshot().rates.perSecond(COMPLETED);
+        }
+
+        @Override
+        public double getFailedPerSecond() {
+            return snapshot().rates.perSecond(FAILED);
+        }
+
+        @Override
+        public long getAverageWait() {
+            return snapshot().rates.getAverageWait();
+        }
+
+        @Override
+        public long getAverageExecution() {
+            return snapshot().rates.getAverageExecution();
+        }
+
+        @Override
+        public long getRecordingSince() {
+            return snapshot().since;
+        }
+
+        @Override
+        public Map<String, JobTypeMetrics> getJobTypes() {
+            return snapshot().jobTypes;
+        }
+    }
+
+    private class DeclarationMetrics implements DeclarationMetricsMXBean {
+
+        @Override
+        public int getBound() {
+            return m_registry.count(true);
+        }
+
+        @Override
+        public int getUnbound() {
+            return m_registry.count(false);
+        }
+
+        @Override
+        public Map<String, Integer> getBoundByKind() {
+            return toStringKeys(m_registry.getCountsByKind().get(true));
+        }
+
+        @Override
+        public Map<String, Integer> getUnboundByKind() {
+            return toStringKeys(m_registry.getCountsByKind().get(false));
+        }
+
+        @Override
+        public Map<String, Integer> getBoundByBundle() {
+            return toStringKeys(m_registry.getCountsByBundle().get(true));
+        }
+
+        @Override
+        public Map<String, Integer> getUnboundByBundle() {
+            return toStringKeys(m_registry.getCountsByBundle().get(false));
+        }
+
+        private Map<String, Integer> toStringKeys(final Map<?, Integer> counts) {
+            Map<String, Integer> converted = new TreeMap<>();
+            for (Map.Entry<?, Integer> entry : counts.entrySet()) {
+                converted.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            return converted;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+/**
+ * Output formats of the commands supporting {@code --format}: colored text for humans, JSON or CSV records for scripts.
+ */
+enum OutputFormat {
+    TEXT,
+    JSON,
+    CSV;
+
+    static OutputFormat parse(final String value) {
+        if (value == null) {
+            return TEXT;
+        }
+        try {
+            return valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown format '" + value + "' (json, csv or text expected)");
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+class PerJobInfos {
+    final String key;
+    final LatencyHistogram execution = new LatencyHistogram();
+    final LatencyHistogram waiting = new LatencyHistogram();
+    final WorstJobsFinder worstJobsFinder;
+
+    public PerJobInfos(final String key, final int worsts) {
+        this.key = key;
+        this.worstJobsFinder = new WorstJobsFinder(worsts);
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+
+/**
+ * Partitions jobs by a {@link GroupingKey} (job type by default).
+ * Once {@code maxPartitions} keys are known, jobs with a new key go to the {@value #OVERFLOW} partition
+ * (concurrent first jobs of new keys may slightly exceed the limit).
+ */
+class PerJobTypeAccumulator extends EmptyQueueListener {
+
+    static final String OVERFLOW = "(other)";
+
+    final ConcurrentMap<String, PerJobInfos> partitions = new ConcurrentHashMap<>();
+    final GroupingKey grouping;
+    private final int worstsPerType;
+    private final int maxPartitions;
+
+    public PerJobTypeAccumulator(final int worstsPerType) {
+        this(worstsPerType, GroupingKeys.JOB_TYPE, Integer.MAX_VALUE);
+    }
+
+    public PerJobTypeAccumulator(final int worstsPerType, final GroupingKey grouping, final int maxPartitions) {
+        this.worstsPerType = worstsPerType;
+        this.grouping = grouping;
+        this.maxPartitions = maxPartitions;
+    }
+
+    private PerJobInfos getPerJobInfos(final JobInfo info) {
+        String key = grouping.keyOf(info);
+        PerJobInfos infos = partitions.get(key);
+        if (infos == null) {
+            if (partitions.size() >= maxPartitions) {
+                key = OVERFLOW;
+                infos = partitions.get(key);
+            }
+        }
+        if (infos == null) {
+            PerJobInfos created = new PerJobInfos(key, worstsPerType);
+            infos = partitions.putIfAbsent(key, created);
+            if (infos == null) {
+                infos = created;
+            }
+        }
+        return infos;
+    }
+
+    @Override
+    protected void ended(final JobInfo info) {
+        PerJobInfos infos = getPerJobInfos(info);
+        infos.waiting.record(info.getWaitDuration());
+        infos.execution.record(info.getExecutionDuration());
+        infos.worstJobsFinder.ended(info);
+    }
+
+}
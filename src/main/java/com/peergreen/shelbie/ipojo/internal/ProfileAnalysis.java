@@ -0,0 +1,203 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Timeline analysis of profiled jobs: worker utilization over time, idle gaps and critical path.
+ * <p>
+ * The queue does not tell which job enlisted which, so the critical path is inferred backward from the
+ * last finished job: a job that waited in the queue was held by the job previously executed on its worker,
+ * otherwise it depends on the job that was running when it was enlisted (most likely its submitter), or
+ * when none was, on the last job finished before its enlistment.
+ */
+class ProfileAnalysis {
+
+    /**
+     * Wait (in ms) above which a job is considered held by worker availability rather than by its submitter.
+     */
+    private static final long WAIT_THRESHOLD = 1;
+
+    private final List<ProfiledJob> jobs;
+    private final long origin;
+    private final long end;
+    private final long maxExecution;
+    private final Set<Long> workers = new HashSet<>();
+
+    ProfileAnalysis(final List<ProfiledJob> recorded) {
+        this.jobs = new ArrayList<>(recorded);
+        Collections.sort(jobs, ProfiledJob.BY_START);
+        long origin = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        long maxExecution = 0;
+        for (ProfiledJob job : jobs) {
+            origin = Math.min(origin, job.getEnlistmentTime());
+            end = Math.max(end, job.getEndTime());
+            maxExecution = Math.max(maxExecution, job.getJob().getExecutionDuration());
+            workers.add(job.getThreadId());
+        }
+        this.origin = jobs.isEmpty() ? 0 : origin;
+        this.end = jobs.isEmpty() ? 0 : end;
+        this.maxExecution = maxExecution;
+    }
+
+    /**
+     * @return jobs sorted by start time
+     */
+    public List<ProfiledJob> getJobs() {
+        return jobs;
+    }
+
+    /**
+     * @return first enlistment time
+     */
+    public long getOrigin() {
+        return origin;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public int getWorkers() {
+        return workers.size();
+    }
+
+    /**
+     * @return for each of the {@code buckets} equal periods between origin and end, the ratio of worker time spent executing jobs
+     */
+    public double[] getUtilization(final int buckets) {
+        double[] utilization = new double[buckets];
+        if (jobs.isEmpty() || (buckets == 0)) {
+            return utilization;
+        }
+        double length = Math.max(1.0, (end - origin) / (double) buckets);
+        for (ProfiledJob job : jobs) {
+            long start = job.getStartTime() - origin;
+            long stop = job.getEndTime() - origin;
+            int first = Math.min(buckets - 1, (int) (start / length));
+            int last = Math.min(buckets - 1, (int) (stop / length));
+            for (int i = first; i <= last; i++) {
+                double overlap = Math.min(stop, (i + 1) * length) - Math.max(start, i * length);
+                if (overlap > 0) {
+                    utilization[i] += overlap;
+                }
+            }
+        }
+        for (int i = 0; i < buckets; i++) {
+            utilization[i] /= length * Math.max(1, workers.size());
+        }
+        return utilization;
+    }
+
+    /**
+     * @param minimum minimal gap duration (in ms)
+     * @return periods (pairs of start and end times) during which no worker executed any job
+     */
+    public List<long[]> getIdleGaps(final long minimum) {
+        List<long[]> gaps = new ArrayList<>();
+        long busyUntil = Long.MIN_VALUE;
+        for (ProfiledJob job : jobs) {
+            if ((busyUntil != Long.MIN_VALUE) && (job.getStartTime() - busyUntil >= minimum)) {
+                gaps.add(new long[] {busyUntil, job.getStartTime()});
+            }
+            busyUntil = Math.max(busyUntil, job.getEndTime());
+        }
+        return gaps;
+    }
+
+    /**
+     * @return inferred critical path, from the first job to the last finished one
+     */
+    public List<ProfiledJob> getCriticalPath() {
+        List<ProfiledJob> path = new ArrayList<>();
+        if (jobs.isEmpty()) {
+            return path;
+        }
+
+        // Per worker predecessors
+        Map<ProfiledJob, ProfiledJob> previousOnWorker = new HashMap<>();
+        Map<Long, ProfiledJob> lastOnWorker = new HashMap<>();
+        ProfiledJob last = jobs.get(0);
+        for (ProfiledJob job : jobs) {
+            ProfiledJob previous = lastOnWorker.put(job.getThreadId(), job);
+            if (previous != null) {
+                previousOnWorker.put(job, previous);
+            }
+            if (job.getEndTime() > last.getEndTime()) {
+                last = job;
+            }
+        }
+
+        ProfiledJob current = last;
+        while (current != null) {
+            path.add(current);
+            ProfiledJob predecessor;
+            if (current.getJob().getWaitDuration() > WAIT_THRESHOLD) {
+                predecessor = previousOnWorker.get(current);
+            } else {
+                predecessor = runningAt(current.getEnlistmentTime(), current);
+            }
+            // Always move backward in time
+            if ((predecessor != null) && (predecessor.getStartTime() >= current.getStartTime())) {
+                predecessor = null;
+            }
+            current = predecessor;
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * @return the most recently started job (other than the given one) running at the given time,
+     *         or the last one finished before that time
+     */
+    private ProfiledJob runningAt(final long time, final ProfiledJob excluded) {
+        // Last job started at or before the given time
+        int low = 0;
+        int high = jobs.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (jobs.get(middle).getStartTime() <= time) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        // Older jobs cannot still be running
+        ProfiledJob finished = null;
+        for (int i = high; (i >= 0) && (jobs.get(i).getStartTime() >= time - maxExecution); i--) {
+            ProfiledJob job = jobs.get(i);
+            if (job == excluded) {
+                continue;
+            }
+            if (job.getEndTime() >= time) {
+                return job;
+            }
+            if ((finished == null) || (job.getEndTime() > finished.getEndTime())) {
+                finished = job;
+            }
+        }
+        if ((finished == null) && (high >= 0)) {
+            // Idle period longer than any job: approximated by the last started job
+            finished = jobs.get(high);
+        }
+        return (finished == excluded) ? null : finished;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.Comparator;
+
+/**
+ * A finished job, together with the worker thread that executed it.
+ */
+final class ProfiledJob {
+
+    static final Comparator<ProfiledJob> BY_START = new Comparator<ProfiledJob>() {
+        @Override
+        public int compare(final ProfiledJob first, final ProfiledJob second) {
+            return Long.compare(first.getStartTime(), second.getStartTime());
+        }
+    };
+
+    private final JobSnapshot job;
+    private final long threadId;
+
+    ProfiledJob(final JobSnapshot job, final long threadId) {
+        this.job = job;
+        this.threadId = threadId;
+    }
+
+    public JobSnapshot getJob() {
+        return job;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    public long getEnlistmentTime() {
+        return job.getEnlistmentTime();
+    }
+
+    public long getStartTime() {
+        return job.getStartTime();
+    }
+
+    public long getEndTime() {
+        return job.getEndTime();
+    }
+}
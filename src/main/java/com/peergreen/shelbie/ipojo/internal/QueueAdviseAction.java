@@ -0,0 +1,222 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.COMPLETED;
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.ENLISTED;
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.FAILED;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.gogo.commands.Option;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.extender.queue.QueueService;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "queue-advise",
+         scope = "ipojo",
+         description = "Recommend a worker count for the iPOJO's processing queue from its measured load")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class QueueAdviseAction implements Action {
+
+    @Option(name = "-t",
+            aliases = "--window",
+            description = "Seconds of recent activity used to measure the steady load (60 by default, 300 at most)",
+            required = false)
+    private int window = 60;
+
+    @Option(name = "-u",
+            aliases = "--utilization",
+            description = "Maximum targeted worker utilization, in percent (80 by default)",
+            required = false)
+    private int utilization = 80;
+
+    @Option(name = "-w",
+            aliases = "--target-wait",
+            description = "Maximum targeted mean wait in ms (mean execution time by default)",
+            required = false)
+    private long targetWait = -1;
+
+    @Option(name = "-c",
+            aliases = "--workers",
+            description = "Current worker count (number of workers seen by the profiler by default)",
+            required = false)
+    private int workers = -1;
+
+    @Option(name = "-s",
+            aliases = "--sizes",
+            description = "Comma separated pool sizes for which startup duration is predicted",
+            required = false)
+    private String sizes;
+
+    private final QueueService m_queueService;
+    private final QueueEventRecorder m_recorder;
+    private final QueueProfiler m_profiler;
+
+    public QueueAdviseAction(final @Requires(filter = "(ipojo.queue.mode=async)") QueueService m_queueService,
+                             final @Requires QueueEventRecorder m_recorder,
+                             final @Requires QueueProfiler m_profiler) {
+        this.m_queueService = m_queueService;
+        this.m_recorder = m_recorder;
+        this.m_profiler = m_profiler;
+    }
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        if ((window < 1) || (window > RateCounters.HISTORY)) {
+            throw new IllegalArgumentException("--window must be between 1 and " + RateCounters.HISTORY + " seconds");
+        }
+
+        PrintStream out = Consoles.of(session);
+        List<ProfiledJob> timeline = m_profiler.getJobs();
+        int processors = Runtime.getRuntime().availableProcessors();
+        int current = (workers > 0) ? workers : new ProfileAnalysis(timeline).getWorkers();
+
+        Ansi buffer = Ansi.ansi();
+        QueueStatisticsPrinter.printBanner(buffer, "Current state");
+        buffer.render("Executing: @|bold %6d|@ jobs, waiting: @|bold %6d|@ jobs, finished: @|bold %6d|@ jobs%n",
+                      m_queueService.getCurrents(),
+                      m_queueService.getWaiters(),
+                      m_queueService.getFinished());
+        buffer.render("Workers  : @|bold %6s|@ (%d available processors)%n",
+                      (current > 0) ? Integer.toString(current) : "?",
+                      processors);
+        buffer.newline();
+        out.print(buffer);
+
+        out.print(steadyState(current, processors));
+        out.print(startup(timeline, current, processors));
+        out.flush();
+        return null;
+    }
+
+    private Ansi steadyState(final int current, final int processors) {
+        Ansi buffer = Ansi.ansi();
+        RateCounters.Rates rates = m_recorder.getRates().getRates(window);
+        QueueStatisticsPrinter.printBanner(buffer, String.format("Steady state (last %d s)", window));
+
+        double arrival = rates.perSecond(ENLISTED) / 1000.0;
+        double execution = rates.getAverageExecution();
+        if ((rates.count(COMPLETED) + rates.count(FAILED)) == 0) {
+            // Nothing finished recently: fall back on the whole recording
+            execution = m_recorder.getStatistics().accumulated.execution.getMean();
+        }
+        double wait = rates.getAverageWait();
+
+        buffer.render("Arrival rate  : @|bold %8.2f|@ jobs/s%n", arrival * 1000);
+        buffer.render("Mean execution: @|bold %8.1f|@ ms, mean wait: @|bold %.1f|@ ms%n", execution, wait);
+        if ((arrival == 0) || (execution == 0)) {
+            return buffer.render("No load measured, model skipped").newline().newline();
+        }
+
+        // Little's law: mean number of jobs in the queue and in the workers
+        double load = arrival * execution;
+        buffer.render("Little's law : @|bold %.2f|@ jobs waiting and @|bold %.2f|@ executing on average%n",
+                      arrival * wait,
+                      load);
+
+        double maxWait = (targetWait >= 0) ? targetWait : execution;
+        int recommended = QueueModel.recommend(load, execution, utilization / 100.0, maxWait);
+
+        buffer.render("@|bold Workers | Utilization | P(wait) | Mean wait|@").newline();
+        TreeSet<Integer> candidates = new TreeSet<>();
+        candidates.add(recommended);
+        if (current > 0) {
+            candidates.add(current);
+        }
+        for (int c = Math.max(1, recommended - 2); c <= recommended + 2; c++) {
+            candidates.add(c);
+        }
+        for (int c : candidates) {
+            double predicted = QueueModel.meanWait(c, load, execution);
+            // Markup has to be part of the format: arguments are not rendered
+            String format = "%6d | %10.0f%% | %6.0f%% | %9s";
+            format = (c == recommended) ? "@|bold " + format + "|@%n" : format + "%n";
+            buffer.render(format,
+                          c,
+                          Math.min(100, (load * 100) / c),
+                          QueueModel.waitProbability(c, load) * 100,
+                          Double.isInfinite(predicted) ? "saturated" : String.format("%.1f ms", predicted));
+        }
+        buffer.render("Recommended: @|bold %d|@ workers (utilization <= %d%%, mean wait <= %d ms)%n",
+                      recommended,
+                      utilization,
+                      Math.round(maxWait));
+        cpuWarning(buffer, recommended, processors);
+        return buffer.newline();
+    }
+
+    private Ansi startup(final List<ProfiledJob> timeline, final int current, final int processors) {
+        Ansi buffer = Ansi.ansi();
+        QueueStatisticsPrinter.printBanner(buffer, "Recorded timeline replayed on other pool sizes");
+        if (timeline.isEmpty()) {
+            return buffer.render("No job recorded by the profiler").newline();
+        }
+        ProfileAnalysis analysis = new ProfileAnalysis(timeline);
+        buffer.render("%d jobs recorded, measured duration @|bold %d|@ ms with %d workers%n",
+                      timeline.size(),
+                      analysis.getEnd() - analysis.getOrigin(),
+                      analysis.getWorkers());
+        if (m_profiler.isFull()) {
+            buffer.render("@|yellow Timeline full, later jobs were not recorded|@%n");
+        }
+
+        buffer.render("@|bold Workers | Predicted duration|@").newline();
+        for (int size : sizes(current, processors)) {
+            buffer.render("%6d | %15d ms%n", size, QueueModel.replay(timeline, size));
+        }
+        return buffer;
+    }
+
+    private void cpuWarning(final Ansi buffer, final int recommended, final int processors) {
+        ThreadUsageStatistics.Totals totals = m_recorder.getThreadUsage().getTotals();
+        long wall = totals.cpuWallTime.sum();
+        if (wall == 0) {
+            return;
+        }
+        double cpu = TimeUnit.NANOSECONDS.toMillis(totals.cpuTime.sum()) / (double) wall;
+        // Each worker keeps this share of a processor busy
+        int cap = (int) Math.floor(processors / Math.max(cpu, 0.01));
+        if (recommended > cap) {
+            buffer.render("@|yellow Jobs spend %.0f%% of their execution on CPU: beyond %d workers they compete"
+                          + " for the %d processors|@%n", cpu * 100, cap, processors);
+        }
+    }
+
+    private TreeSet<Integer> sizes(final int current, final int processors) {
+        TreeSet<Integer> values = new TreeSet<>();
+        if (sizes != null) {
+            for (String size : sizes.split(",")) {
+                values.add(Math.max(1, Integer.parseInt(size.trim())));
+            }
+            return values;
+        }
+        for (int size = 1; size <= 2 * processors; size *= 2) {
+            values.add(size);
+        }
+        values.add(processors);
+        if (current > 0) {
+            values.add(current);
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.List;
+
+/**
+ * A breach of one of the {@link QueueWatchdog} rules, active until {@link #getEndTime()} is set.
+ */
+final class QueueAlert {
+
+    private final String rule;
+    private final long startTime;
+    private final List<String> snapshot;
+    private volatile long endTime = 0;
+    private volatile double peak;
+
+    QueueAlert(final String rule, final long startTime, final double value, final List<String> snapshot) {
+        this.rule = rule;
+        this.startTime = startTime;
+        this.peak = value;
+        this.snapshot = snapshot;
+    }
+
+    public String getRule() {
+        return rule;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return end of the breach, {@literal 0} while it is active
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public boolean isActive() {
+        return endTime == 0;
+    }
+
+    /**
+     * @return worst measured value during the breach
+     */
+    public double getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return offending jobs when the breach started
+     */
+    public List<String> getSnapshot() {
+        return snapshot;
+    }
+
+    void update(final double value) {
+        peak = Math.max(peak, value);
+    }
+
+    void end(final long time) {
+        endTime = time;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.gogo.commands.Option;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "queue-alerts",
+         scope = "ipojo",
+         description = "List active and past breaches of the iPOJO's processing queue watchdog rules")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class QueueAlertsAction implements Action {
+
+    @Option(name = "-v",
+            aliases = "--verbose",
+            description = "When activated, display the offending jobs of each breach",
+            required = false)
+    private boolean verbose = false;
+
+    @Option(name = "-c",
+            aliases = "--clear",
+            description = "When activated, forget past breaches once displayed",
+            required = false)
+    private boolean clear = false;
+
+    private final QueueWatchdog m_watchdog;
+
+    public QueueAlertsAction(final @Requires QueueWatchdog m_watchdog) {
+        this.m_watchdog = m_watchdog;
+    }
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        PrintStream out = Consoles.of(session);
+        Map<String, String> rules = m_watchdog.getRules();
+
+        Ansi buffer = Ansi.ansi();
+        buffer.render("@|bold Rules|@").newline();
+        for (Map.Entry<String, String> rule : rules.entrySet()) {
+            buffer.render("  %-8s %s%n", rule.getKey(), rule.getValue());
+        }
+        out.print(buffer);
+
+        List<QueueAlert> active = m_watchdog.getActiveAlerts();
+        out.print(Ansi.ansi().render("%n@|bold %d active breaches|@%n", active.size()));
+        for (QueueAlert alert : active) {
+            print(out, alert, rules);
+        }
+
+        List<QueueAlert> history = m_watchdog.getHistory();
+        out.print(Ansi.ansi().render("%n@|bold %d past breaches|@ (most recent first)%n", history.size()));
+        for (QueueAlert alert : history) {
+            print(out, alert, rules);
+        }
+        out.flush();
+
+        if (clear) {
+            m_watchdog.clearHistory();
+        }
+        return null;
+    }
+
+    private void print(final PrintStream out, final QueueAlert alert, final Map<String, String> rules) {
+        Ansi buffer = Ansi.ansi();
+        if (alert.isActive()) {
+            buffer.render("  @|bold,red %-8s|@ since %tT (%d ms), peak %.1f - %s%n",
+                          alert.getRule(),
+                          alert.getStartTime(),
+                          System.currentTimeMillis() - alert.getStartTime(),
+                          alert.getPeak(),
+                          rules.get(alert.getRule()));
+        } else {
+            buffer.render("  @|bold %-8s|@ %tT - %tT (%d ms), peak %.1f - %s%n",
+                          alert.getRule(),
+                          alert.getStartTime(),
+                          alert.getEndTime(),
+                          alert.getEndTime() - alert.getStartTime(),
+                          alert.getPeak(),
+                          rules.get(alert.getRule()));
+        }
+        if (verbose) {
+            for (String job : alert.getSnapshot()) {
+                buffer.render("      %s%n", job);
+            }
+        }
+        out.print(buffer);
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Argument;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.gogo.commands.Option;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "queue-capture",
+         scope = "ipojo",
+         description = "Manage the background capture sessions started with queue-performance --duration")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class QueueCaptureAction implements Action {
+
+    @Argument(index = 0,
+              name = "action",
+              description = "One of list (default), show or cancel",
+              required = false)
+    private String action = "list";
+
+    @Argument(index = 1,
+              name = "id",
+              description = "Capture session id (for show and cancel)",
+              required = false)
+    private int id = -1;
+
+    @Option(name = "-w",
+            aliases = "--worst",
+            description = "Number of worst jobs to display (5 by default)",
+            required = false)
+    private int worsts = 5;
+
+    @Option(name = "-p",
+            aliases = "--worst-per-type",
+            description = "Number of worst jobs to display for each partition (none by default)",
+            required = false)
+    private int worstsPerType = 0;
+
+    @Option(name = "-s",
+            aliases = "--save",
+            description = "With show, save the statistics aggregates of a finished session to the given file,"
+                          + " to be used as a queue-performance baseline",
+            required = false)
+    private File save;
+
+    private final QueueCaptureManager m_captures;
+
+    public QueueCaptureAction(final @Requires QueueCaptureManager m_captures) {
+        this.m_captures = m_captures;
+    }
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        PrintStream out = Consoles.of(session);
+        if ("list".equals(action)) {
+            Ansi header = Ansi.ansi();
+            header.render("@|bold   ID | State     | Started  | Duration | Sampling |   Jobs|@").newline();
+            out.print(header);
+            for (CaptureSession capture : m_captures.getSessions()) {
+                out.print(Ansi.ansi().render("%4d | %-9s | %tT | %6d s | %8s | %6d%n",
+                                             capture.getId(),
+                                             capture.getState(),
+                                             capture.getStartTime(),
+                                             capture.getDuration() / 1000,
+                                             "1/" + capture.getSampling(),
+                                             capture.getStatistics().accumulated.execution.getCount()
+                                                     * capture.getSampling()));
+            }
+        } else if ("show".equals(action)) {
+            CaptureSession capture = find(out);
+            if (capture != null) {
+                Ansi buffer = Ansi.ansi();
+                QueueStatisticsPrinter.printBanner(buffer, String.format("Capture #%d (%s)",
+                                                                         capture.getId(),
+                                                                         capture.getState()));
+                buffer.render("Started %1$tF %1$tT for %2$d s%n", capture.getStartTime(), capture.getDuration() / 1000);
+                out.print(buffer);
+                new QueueStatisticsPrinter(worsts, worstsPerType).print(out, capture.getStatistics());
+                if (save != null) {
+                    save(out, capture);
+                }
+            }
+        } else if ("cancel".equals(action)) {
+            CaptureSession capture = find(out);
+            if ((capture != null) && !m_captures.cancel(id)) {
+                out.print(Ansi.ansi().render("Capture #%d is not running%n", id));
+            }
+        } else {
+            out.print(Ansi.ansi().render("@|bold,red Unknown action '%s' (list, show or cancel expected)|@%n", action));
+        }
+        out.flush();
+        return null;
+    }
+
+    private void save(final PrintStream out, final CaptureSession capture) throws IOException {
+        if (capture.getState() == CaptureSession.State.RUNNING) {
+            out.print(Ansi.ansi().render("@|bold,red Capture #%d is still running, nothing saved|@%n", id));
+            return;
+        }
+        // Counts and totals of sampled sessions are extrapolated, as printed
+        StatisticsSnapshot.of(capture.getStatistics()).write(save);
+        out.print(Ansi.ansi().render("Statistics aggregates saved to @|bold %s|@%n", save.getAbsolutePath()));
+    }
+
+    private CaptureSession find(final PrintStream out) {
+        CaptureSession capture = m_captures.get(id);
+        if (capture == null) {
+            out.print(Ansi.ansi().render("@|bold,red No capture #%d (it may have been evicted)|@%n", id));
+        }
+        return capture;
+    }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.apache.felix.ipojo.extender.queue.debug.QueueEventProxy;
+
+/**
+ * Runs {@link CaptureSession}s in the background: each session listens to the queue until its duration elapsed
+ * (or it is cancelled). Finished sessions are kept, oldest first evicted, within a memory budget; running ones
+ * are not evicted, their number is capped instead.
+ */
+@Component
+@Provides(specifications = QueueCaptureManager.class)
+public class QueueCaptureManager {
+
+    /**
+     * Memory budget (in bytes) of the finished sessions.
+     */
+    @Property(name = "budget", value = "8388608")
+    private long budget;
+
+    /**
+     * Maximum number of sessions running at the same time.
+     */
+    @Property(name = "max.running", value = "4")
+    private int maxRunning;
+
+    private final QueueEventProxy m_eventProxy;
+
+    private final AtomicInteger ids = new AtomicInteger();
+
+    /**
+     * Sessions by id, so the oldest ones are first.
+     */
+    private final Map<Integer, CaptureSession> sessions = new ConcurrentSkipListMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    public QueueCaptureManager(final @Requires QueueEventProxy m_eventProxy) {
+        this.m_eventProxy = m_eventProxy;
+    }
+
+    @Validate
+    public synchronized void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "iPOJO queue capture");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Invalidate
+    public synchronized void stop() {
+        scheduler.shutdownNow();
+        for (CaptureSession session : sessions.values()) {
+            end(session, CaptureSession.State.CANCELLED);
+        }
+    }
+
+    /**
+     * @param duration capture duration (in ms)
+     * @param sampling only one job out of {@code sampling} is recorded
+     * @param partitioned accumulator (and grouping) of the captured jobs
+     * @return the started session
+     * @throws IllegalStateException if {@code max.running} sessions are already running
+     */
+    public synchronized CaptureSession start(final long duration,
+                                             final int sampling,
+                                             final int worsts,
+                                             final PerJobTypeAccumulator partitioned) {
+        int running = 0;
+        for (CaptureSession session : sessions.values()) {
+            if (session.getState() == CaptureSession.State.RUNNING) {
+                running++;
+            }
+        }
+        if (running >= maxRunning) {
+            throw new IllegalStateException(running + " capture sessions are already running,"
+                                            + " wait for one to finish or cancel it");
+        }
+        QueueStatistics statistics = new QueueStatistics(System.currentTimeMillis(), worsts, partitioned);
+        final CaptureSession session = new CaptureSession(ids.incrementAndGet(), duration, sampling, statistics);
+        sessions.put(session.getId(), session);
+        m_eventProxy.addQueueListener(session);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                end(session, CaptureSession.State.FINISHED);
+            }
+        }, duration, TimeUnit.MILLISECONDS);
+        return session;
+    }
+
+    /**
+     * @return {@literal false} if there is no such running session
+     */
+    public boolean cancel(final int id) {
+        CaptureSession session = sessions.get(id);
+        if ((session == null) || (session.getState() != CaptureSession.State.RUNNING)) {
+            return false;
+        }
+        end(session, CaptureSession.State.CANCELLED);
+        return true;
+    }
+
+    public CaptureSession get(final int id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * @return every kept session, oldest first
+     */
+    public List<CaptureSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    private synchronized void end(final CaptureSession session, final CaptureSession.State state) {
+        m_eventProxy.removeQueueListener(session);
+        session.end(state);
+        evict();
+    }
+
+    /**
+     * Forget the oldest finished sessions until the others fit in the budget.
+     */
+    private void evict() {
+        long used = 0;
+        for (CaptureSession session : sessions.values()) {
+            if (session.getState() != CaptureSession.State.RUNNING) {
+                used += session.getFootprint();
+            }
+        }
+        Iterator<CaptureSession> iterator = sessions.values().iterator();
+        while ((used > budget) && iterator.hasNext()) {
+            CaptureSession session = iterator.next();
+            if (session.getState() != CaptureSession.State.RUNNING) {
+                used -= session.getFootprint();
+                iterator.remove();
+            }
+        }
+    }
+}
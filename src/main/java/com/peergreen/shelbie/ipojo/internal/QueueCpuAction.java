@@ -0,0 +1,180 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.gogo.commands.Option;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "queue-cpu",
+         scope = "ipojo",
+         description = "Show how much of the iPOJO's queue jobs execution time was spent on CPU or blocked")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class QueueCpuAction implements Action {
+
+    /**
+     * Above this CPU ratio, jobs are considered CPU bound.
+     */
+    private static final double CPU_BOUND = 0.7;
+
+    /**
+     * Above this blocked ratio, jobs are considered contended.
+     */
+    private static final double CONTENDED = 0.3;
+
+    @Option(name = "-e",
+            aliases = "--enable",
+            description = "Start (on) or stop (off) measuring the CPU times of the jobs (off by default)",
+            required = false)
+    private String enable;
+
+    @Option(name = "-c",
+            aliases = "--contention",
+            description = "Enable (on) or disable (off) JVM thread contention monitoring, needed for blocked/waited times",
+            required = false)
+    private String contention;
+
+    @Option(name = "-u",
+            aliases = "--user",
+            description = "Enable (on) or disable (off) the measure of user mode CPU time (costly on Linux)",
+            required = false)
+    private String user;
+
+    @Option(name = "-r",
+            aliases = "--reset",
+            description = "When activated, reset the recorded times once displayed (queue statistics are kept)",
+            required = false)
+    private boolean reset = false;
+
+    private final QueueEventRecorder m_recorder;
+
+    public QueueCpuAction(final @Requires QueueEventRecorder m_recorder) {
+        this.m_recorder = m_recorder;
+    }
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        PrintStream out = Consoles.of(session);
+
+        if (enable != null) {
+            m_recorder.setThreadUsageMeasured("on".equals(enable));
+        }
+
+        if (contention != null) {
+            if (!m_recorder.monitorContention("on".equals(contention))) {
+                out.print(Ansi.ansi().render("@|yellow Thread contention monitoring is not supported by this JVM|@")
+                                     .newline());
+            }
+        }
+
+        if (user != null) {
+            m_recorder.setUserTimeMeasured("on".equals(user));
+        }
+
+        ThreadUsageStatistics usage = m_recorder.getThreadUsage();
+        boolean monitored = m_recorder.isContentionMonitored();
+
+        Ansi buffer = Ansi.ansi();
+        if (!m_recorder.isThreadUsageMeasured()) {
+            buffer.render("@|yellow CPU times are not measured (use -e on)|@").newline();
+        }
+        buffer.render("Recording since %1$tF %1$tT%n", usage.getSince());
+        if (!monitored) {
+            buffer.render("@|yellow Blocked and waited times are not measured (use -c on)|@").newline();
+        }
+        buffer.render("@|bold %-30s | %6s | %9s | %9s | %5s | %5s | %14s | %14s | %5s|@%n",
+                      "Job type", "Jobs", "Wall ms", "CPU ms", "CPU", "User", "Blocked (n/ms)", "Waited (n/ms)", "Other");
+        out.print(buffer);
+
+        for (ThreadUsageStatistics.Totals totals : usage.partitions.values()) {
+            out.print(row(totals.jobType, totals, monitored));
+        }
+        ThreadUsageStatistics.Totals all = usage.getTotals();
+        out.print(row("(all)", all, monitored));
+
+        out.print(verdict(all, monitored));
+        out.flush();
+
+        if (reset) {
+            m_recorder.resetThreadUsage();
+        }
+        return null;
+    }
+
+    private static Ansi row(final String type, final ThreadUsageStatistics.Totals totals, final boolean monitored) {
+        long wall = totals.cpuWallTime.sum();
+        long cpu = TimeUnit.NANOSECONDS.toMillis(totals.cpuTime.sum());
+        long user = TimeUnit.NANOSECONDS.toMillis(totals.userTime.sum());
+        long blocked = monitored ? totals.blockedTime.sum() : 0;
+        long waited = monitored ? totals.waitedTime.sum() : 0;
+        String userShare = "-";
+        if (totals.userWallTime.sum() > 0) {
+            userShare = String.format("%.0f%%", percent(user, totals.userWallTime.sum()));
+        }
+        return Ansi.ansi().render("%-30s | %6d | %9d | %9d | %4.0f%% | %5s | %5d / %6s | %5d / %6s | %4.0f%%%n",
+                                  shorten(type, 30),
+                                  totals.jobs.sum(),
+                                  totals.wallTime.sum(),
+                                  cpu,
+                                  percent(cpu, wall),
+                                  userShare,
+                                  totals.blockedCount.sum(),
+                                  monitored ? Long.toString(totals.blockedTime.sum()) : "-",
+                                  totals.waitedCount.sum(),
+                                  monitored ? Long.toString(totals.waitedTime.sum()) : "-",
+                                  percent(Math.max(0, wall - cpu - blocked - waited), wall));
+    }
+
+    private static Ansi verdict(final ThreadUsageStatistics.Totals all, final boolean monitored) {
+        Ansi buffer = Ansi.ansi().newline();
+        long wall = all.cpuWallTime.sum();
+        if (wall == 0) {
+            return buffer.render("No measured job execution yet").newline();
+        }
+        double cpu = TimeUnit.NANOSECONDS.toMillis(all.cpuTime.sum()) / (double) wall;
+        double blocked = monitored ? all.blockedTime.sum() / (double) wall : 0;
+        int processors = Runtime.getRuntime().availableProcessors();
+        if (cpu >= CPU_BOUND) {
+            buffer.render("Jobs are @|bold CPU bound|@ (%.0f%% on CPU): more than %d workers (available processors)"
+                          + " will not make them faster%n", cpu * 100, processors);
+        } else if (blocked >= CONTENDED) {
+            buffer.render("Jobs are @|bold contended|@ (%.0f%% blocked on monitors): more workers would mostly add"
+                          + " contention%n", blocked * 100);
+        } else {
+            buffer.render("Jobs are mostly @|bold off-CPU|@ (%.0f%% on CPU): more workers may shorten the queue%n",
+                          cpu * 100);
+        }
+        return buffer;
+    }
+
+    private static double percent(final long part, final long whole) {
+        return (whole == 0) ? 0 : (part * 100.0) / whole;
+    }
+
+    private static String shorten(final String value, final int length) {
+        String shown = String.valueOf(value);
+        if (shown.length() <= length) {
+            return shown;
+        }
+        return "..." + shown.substring(shown.length() - length + 3);
+    }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.ipojo.extender.queue.debug.QueueEventProxy;
+
+/**
+ * Records every job going through the iPOJO queue from the bundle activation,
+ * so reports are not limited to the lifetime of a command.
+ */
+@Component
+@Provides(specifications = QueueEventRecorder.class)
+public class QueueEventRecorder {
+
+    /**
+     * Number of recent jobs kept for windowed reports.
+     */
+    public static final int RING_CAPACITY = 4096;
+
+    /**
+     * Number of worst jobs retained by the recorder.
+     */
+    public static final int MAX_WORSTS = 100;
+
+    /**
+     * Number of worst jobs retained by the recorder for each job type.
+     */
+    public static final int MAX_WORSTS_PER_TYPE = 20;
+
+    private final QueueEventProxy m_eventProxy;
+
+    private final JobSnapshotRing ring = new JobSnapshotRing(RING_CAPACITY);
+
+    private final RateCounters rates = new RateCounters();
+
+    private final ConcurrentMap<JobInfo, RunningJob> running = new ConcurrentHashMap<>();
+
+    private final RecordingListener listener = new RecordingListener();
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private volatile QueueStatistics statistics = createStatistics();
+
+    private volatile boolean threadUsageMeasured = false;
+
+    private volatile boolean userTimeMeasured = false;
+
+    private volatile ThreadUsageStatistics usage = new ThreadUsageStatistics(System.currentTimeMillis());
+
+    public QueueEventRecorder(final @Requires QueueEventProxy m_eventProxy) {
+        this.m_eventProxy = m_eventProxy;
+    }
+
+    @Validate
+    public void start() {
+        m_eventProxy.addQueueListener(listener);
+    }
+
+    @Invalidate
+    public void stop() {
+        m_eventProxy.removeQueueListener(listener);
+        running.clear();
+    }
+
+    /**
+     * @return statistics accumulated since the recorder started (or its statistics were reset)
+     */
+    public QueueStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @param window duration (in ms) of the window, ending now
+     * @return statistics of the retained jobs finished within the given window
+     */
+    public QueueStatistics getStatistics(final long window) {
+        return getStatistics(window, new PerJobTypeAccumulator(MAX_WORSTS_PER_TYPE));
+    }
+
+    /**
+     * @param window duration (in ms) of the window, ending now ({@link Long#MAX_VALUE} for every retained job)
+     * @param partitioned accumulator (and grouping) of the retained jobs
+     * @return statistics of the retained jobs finished within the given window
+     */
+    public QueueStatistics getStatistics(final long window, final PerJobTypeAccumulator partitioned) {
+        long since = Math.max(System.currentTimeMillis() - window, statistics.getSince());
+        List<JobSnapshot> jobs = ring.since(since);
+        QueueStatistics windowed = QueueStatistics.of(since, MAX_WORSTS, partitioned, jobs);
+        // Every retained job is in the window: older ones may have been overwritten
+        windowed.truncated = (jobs.size() >= ring.capacity()) && (ring.recorded() > ring.capacity());
+        return windowed;
+    }
+
+    /**
+     * @return sliding window rates (not affected by resets)
+     */
+    public RateCounters getRates() {
+        return rates;
+    }
+
+    /**
+     * @return jobs currently executed, oldest first
+     */
+    public List<RunningJob> getRunningJobs() {
+        List<RunningJob> jobs = new ArrayList<>(running.values());
+        Collections.sort(jobs, RunningJob.OLDEST_FIRST);
+        return jobs;
+    }
+
+    /**
+     * @return per job type CPU and contention times of the jobs finished since the recorder started
+     *         (or its thread usage was reset)
+     */
+    public ThreadUsageStatistics getThreadUsage() {
+        return usage;
+    }
+
+    /**
+     * @return {@literal true} when blocked and waited times are measured
+     */
+    public boolean isContentionMonitored() {
+        return threads.isThreadContentionMonitoringSupported() && threads.isThreadContentionMonitoringEnabled();
+    }
+
+    /**
+     * Enable JVM wide thread contention monitoring (it has a small cost on every monitor acquisition).
+     * @return {@literal false} if the JVM does not support it
+     */
+    public boolean monitorContention(final boolean enabled) {
+        if (!threads.isThreadContentionMonitoringSupported()) {
+            return false;
+        }
+        threads.setThreadContentionMonitoringEnabled(enabled);
+        return true;
+    }
+
+    public boolean isThreadUsageMeasured() {
+        return threadUsageMeasured;
+    }
+
+    /**
+     * Thread usage is not measured by default: querying the ThreadMXBean on each started and ended job
+     * is only worth it while someone looks at the CPU times. Times recorded so far are dropped when enabled.
+     */
+    public void setThreadUsageMeasured(final boolean measured) {
+        if (measured && !threadUsageMeasured) {
+            usage = new ThreadUsageStatistics(System.currentTimeMillis());
+        }
+        this.threadUsageMeasured = measured;
+    }
+
+    public boolean isUserTimeMeasured() {
+        return userTimeMeasured;
+    }
+
+    /**
+     * User mode CPU time is not measured by default: it is much more costly to obtain than the CPU time on Linux.
+     */
+    public void setUserTimeMeasured(final boolean measured) {
+        this.userTimeMeasured = measured;
+    }
+
+    /**
+     * Forget the recorded jobs and their statistics (thread usage and rates are kept).
+     */
+    public void resetStatistics() {
+        ring.clear();
+        statistics = createStatistics();
+    }
+
+    /**
+     * Forget the thread usage of the finished jobs (statistics and rates are kept).
+     */
+    public void resetThreadUsage() {
+        usage = new ThreadUsageStatistics(System.currentTimeMillis());
+    }
+
+    private static QueueStatistics createStatistics() {
+        return new QueueStatistics(System.currentTimeMillis(), MAX_WORSTS, MAX_WORSTS_PER_TYPE);
+    }
+
+    private class RecordingListener extends EmptyQueueListener {
+        @Override
+        public void enlisted(final JobInfo info) {
+            rates.enlisted();
+        }
+
+        @Override
+        public void started(final JobInfo info) {
+            rates.started(info.getWaitDuration());
+            // Listeners are called from the worker thread, before and after the job execution
+            ThreadUsage usage = threadUsageMeasured ? ThreadUsage.current(threads, userTimeMeasured) : null;
+            running.put(info, new RunningJob(info, Thread.currentThread(), usage));
+        }
+
+        @Override
+        public void executed(final JobInfo info, final Object o) {
+            rates.executed(info.getExecutionDuration());
+            super.executed(info, o);
+        }
+
+        @Override
+        public void failed(final JobInfo info, final Throwable throwable) {
+            rates.failed(info.getExecutionDuration());
+            super.failed(info, throwable);
+        }
+
+        @Override
+        protected void ended(final JobInfo info) {
+            RunningJob job = running.remove(info);
+            if (job != null) {
+                job.end();
+                boolean measured = threadUsageMeasured && (job.getStartUsage() != null);
+                if (measured && (job.getThread() == Thread.currentThread())) {
+                    ThreadUsage spent = ThreadUsage.current(threads, userTimeMeasured).since(job.getStartUsage());
+                    usage.record(info.getJobType(), info.getExecutionDuration(), spent);
+                }
+            }
+            JobSnapshot snapshot = JobSnapshot.of(info);
+            ring.add(snapshot);
+            statistics.ended(snapshot);
+        }
+    }
+}
@@ -11,7 +11,8 @@
 
 package com.peergreen.shelbie.ipojo.internal;
 
-import java.util.Date;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.List;
 
 import org.apache.felix.gogo.commands.Action;
@@ -21,18 +22,22 @@ import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.HandlerDeclaration;
 import org.apache.felix.ipojo.annotations.Requires;
 import org.apache.felix.ipojo.extender.queue.JobInfo;
-import org.apache.felix.ipojo.extender.queue.QueueService;
 import org.apache.felix.service.command.CommandSession;
 import org.fusesource.jansi.Ansi;
 
 @Component
 @Command(name = "queue-info",
          scope = "ipojo",
-         description = "Show information about the iPOJO's processing queue")
+         description = "Show information about the iPOJO's processing queues")
 @HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
 public class QueueInfoAction implements Action {
 
-    private final QueueService queueService;
+    /**
+     * Columns of the queue records (json and csv formats), the last record holds the totals.
+     * {@code finishedPerSecond} is averaged over the last {@value BoundQueue#RATE_WINDOW} seconds.
+     */
+    private static final String[] QUEUE_COLUMNS = {"queue", "serviceId", "mode", "executing", "waiting", "finished",
+            "finishedPerSecond"};
 
     @Option(name = "-v",
             aliases = "--verbose",
@@ -40,33 +45,218 @@ public class QueueInfoAction implements Action {
             required = false)
     private boolean verbose = false;
 
-    public QueueInfoAction(final @Requires(filter = "(ipojo.queue.mode=async)") QueueService queueService) {
-        this.queueService = queueService;
-    }
+    @Option(name = "--offset",
+            description = "Number of waiters to skip (0 by default)",
+            required = false)
+    private int offset = 0;
+
+    @Option(name = "--limit",
+            description = "Maximum number of waiters to display (all by default)",
+            required = false)
+    private int limit = -1;
 
+    @Option(name = "-t",
+            aliases = "--top",
+            description = "Display the given number of oldest waiters of each queue",
+            required = false)
+    private int top = 0;
+
+    @Option(name = "-g",
+            aliases = "--group-by",
+            description = "Count waiters per 'type' or 'description-prefix', with the maximum wait per group",
+            required = false)
+    private String groupBy;
+
+    @Option(name = "--prefix-length",
+            description = "Length of the description prefix used by --group-by description-prefix (20 by default)",
+            required = false)
+    private int prefixLength = 20;
+
+    @Option(name = "-a",
+            aliases = "--ages",
+            description = "Display the wait-age histogram of each queue's waiters",
+            required = false)
+    private boolean ages = false;
+
+    @Option(name = "--format",
+            description = "Output format: text (default), json (one object per line) or csv",
+            required = false)
+    private String format;
+
+    private final QueueRegistry m_queues;
+
+    public QueueInfoAction(final @Requires QueueRegistry m_queues) {
+        this.m_queues = m_queues;
+    }
 
     public Object execute(final CommandSession session) throws Exception {
 
+        if ((groupBy != null) && !"type".equals(groupBy) && !"description-prefix".equals(groupBy)) {
+            throw new IllegalArgumentException("Unknown grouping '" + groupBy
+                                               + "' (type or description-prefix expected)");
+        }
+
+        OutputFormat outputFormat = OutputFormat.parse(format);
+        if (outputFormat != OutputFormat.TEXT) {
+            if (verbose || (top > 0) || (groupBy != null) || ages) {
+                throw new IllegalArgumentException("Waiters details are only available with the text format");
+            }
+            writeRecords(RecordWriter.of(outputFormat, Consoles.writerOf(session), QUEUE_COLUMNS));
+            return null;
+        }
+
+        PrintStream out = Consoles.of(session);
+        List<BoundQueue> queues = m_queues.getQueues();
+
         Ansi buffer = Ansi.ansi();
-        buffer.render("Executing: @|bold %6d|@ jobs%n", queueService.getCurrents());
-        buffer.render("Finished : @|bold %6d|@ jobs%n", queueService.getFinished());
-        buffer.render("Waiting  : @|bold %6d|@ jobs%n", queueService.getWaiters());
-
-        if (verbose) {
-            // Print waiters details
-            List<JobInfo> infos = queueService.getWaitersInfo();
-            if (!infos.isEmpty()) {
-                buffer.render("%d jobs queued%n", infos.size());
-                int index = 1;
-                for (JobInfo info : infos) {
-                    buffer.render("@|bold %3d|@ %s%n", index++, info.getDescription());
-                    buffer.render("    Enlisted at %1$tT %1$tL ms%n", new Date(info.getEnlistmentTime()));
-                    buffer.render("    Waiting for %d ms%n", info.getWaitDuration());
-                }
+        buffer.render("@|bold %-40s | %-5s | %9s | %9s | %9s | %10s|@%n",
+                      "Queue", "Mode", "Executing", "Waiting", "Finished", "Finished/s");
+
+        long now = System.currentTimeMillis();
+        long executing = 0;
+        long waiting = 0;
+        long finished = 0;
+        double rate = 0;
+        for (BoundQueue queue : queues) {
+            int currents = queue.getService().getCurrents();
+            int waiters = queue.getService().getWaiters();
+            long done = queue.getService().getFinished();
+            double perSecond = queue.rate(done, now);
+            buffer.render("%-40s | %-5s | %9d | %9d | %9d | %10.1f%n",
+                          queue.getName(),
+                          queue.getMode(),
+                          currents,
+                          waiters,
+                          done,
+                          perSecond);
+            executing += currents;
+            waiting += waiters;
+            finished += done;
+            rate += perSecond;
+        }
+        buffer.render("@|bold %-40s | %-5s | %9d | %9d | %9d | %10.1f|@%n",
+                      "(total)", "", executing, waiting, finished, rate);
+        buffer.render("Rates are averaged over the last %d s%n", BoundQueue.RATE_WINDOW);
+        out.print(buffer);
+
+        for (BoundQueue queue : queues) {
+            if ((top > 0) || (groupBy != null) || ages) {
+                printAnalysis(out, queue);
+            }
+            if (verbose) {
+                printWaiters(out, queue);
             }
         }
-        System.out.print(buffer.toString());
+        out.flush();
         return null;
     }
 
-}
\ No newline at end of file
+    /**
+     * Stream one record per queue, then the totals (named {@code (total)}, without service id nor mode).
+     */
+    private void writeRecords(final RecordWriter records) throws IOException {
+        List<BoundQueue> queues = m_queues.getQueues();
+        long now = System.currentTimeMillis();
+        long executing = 0;
+        long waiting = 0;
+        long finished = 0;
+        double rate = 0;
+        for (BoundQueue queue : queues) {
+            int currents = queue.getService().getCurrents();
+            int waiters = queue.getService().getWaiters();
+            long done = queue.getService().getFinished();
+            double perSecond = queue.rate(done, now);
+            records.beginRecord()
+                   .value(queue.getId())
+                   .value(queue.getServiceId())
+                   .value(queue.getMode())
+                   .value(currents)
+                   .value(waiters)
+                   .value(done)
+                   .value(perSecond)
+                   .endRecord();
+            executing += currents;
+            waiting += waiters;
+            finished += done;
+            rate += perSecond;
+        }
+        records.beginRecord()
+               .value("(total)")
+               .nullValue()
+               .nullValue()
+               .value(executing)
+               .value(waiting)
+               .value(finished)
+               .value(rate)
+               .endRecord();
+        records.flush();
+    }
+
+    private void printAnalysis(final PrintStream out, final BoundQueue queue) {
+        WaiterAnalysis analysis = new WaiterAnalysis(System.currentTimeMillis(), top, groupBy, prefixLength);
+        for (JobInfo info : queue.getService().getWaitersInfo()) {
+            analysis.add(info);
+        }
+        if (analysis.getCount() == 0) {
+            return;
+        }
+
+        Ansi buffer = Ansi.ansi();
+        buffer.render("%n%d jobs queued in @|bold %s|@%n", analysis.getCount(), queue.getName());
+        if (ages) {
+            long[] histogram = analysis.getHistogram();
+            long lower = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                String range = (i < WaiterAnalysis.AGES.length)
+                        ? String.format("%d-%d ms", lower, WaiterAnalysis.AGES[i])
+                        : String.format(">= %d ms", lower);
+                buffer.render("  %-14s %6d %s%n", range, histogram[i], bar(histogram[i], analysis.getCount()));
+                lower = (i < WaiterAnalysis.AGES.length) ? WaiterAnalysis.AGES[i] : lower;
+            }
+        }
+        out.print(buffer);
+
+        if (groupBy != null) {
+            out.print(Ansi.ansi().render("  @|bold %6s | %9s | %s|@%n", "Count", "Max wait", groupBy));
+            for (WaiterAnalysis.Group group : analysis.getGroups()) {
+                out.print(Ansi.ansi().render("  %6d | %6d ms | %s%n", group.count, group.maxWait, group.key));
+            }
+        }
+
+        if (top > 0) {
+            buffer = Ansi.ansi();
+            buffer.render("  @|bold %d oldest waiters|@%n", Math.min(top, analysis.getCount()));
+            for (JobInfo info : analysis.getOldest()) {
+                buffer.render("  %6d ms [%s] %s%n", analysis.waitOf(info), info.getJobType(), info.getDescription());
+            }
+            out.print(buffer);
+        }
+    }
+
+    private static String bar(final long value, final long total) {
+        StringBuilder bar = new StringBuilder();
+        for (long i = Math.round((value * 40.0) / total); i > 0; i--) {
+            bar.append('#');
+        }
+        return bar.toString();
+    }
+
+    private void printWaiters(final PrintStream out, final BoundQueue queue) {
+        // Print waiters details
+        List<JobInfo> infos = queue.getService().getWaitersInfo();
+        if (!infos.isEmpty()) {
+            out.print(Ansi.ansi().render("%n%d jobs queued in @|bold %s|@%n", infos.size(), queue.getName()));
+            int from = Math.min(Math.max(offset, 0), infos.size());
+            int to = (limit < 0) ? infos.size() : Math.min(from + limit, infos.size());
+            int index = from + 1;
+            for (JobInfo info : infos.subList(from, to)) {
+                Ansi row = Ansi.ansi();
+                row.render("@|bold %3d|@ %s%n", index++, info.getDescription());
+                row.render("    Enlisted at %1$tT %1$tL ms%n", info.getEnlistmentTime());
+                row.render("    Waiting for %d ms%n", info.getWaitDuration());
+                out.print(row);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static com.peergreen.shelbie.ipojo.internal.JournalFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.ipojo.extender.queue.debug.QueueEventProxy;
+
+/**
+ * Optional flight recorder appending every finished job to a memory-mapped journal (see {@link JournalFormat}).
+ * Once the file is full, the oldest records are overwritten. A journal found at startup is kept as
+ * {@code <file>.1}, so the previous run can still be replayed with {@code ipojo:queue-replay}.
+ * <p>
+ * Recording an event does not allocate, except when a job type is seen for the first time: job types are
+ * interned in the dictionary, descriptions (nearly unique) are copied, truncated, in their record.
+ * No instance is declared by default, one has to be created (with the {@code file} property) to enable it.
+ */
+@Component
+public class QueueJournal {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Property(name = "file", value = "ipojo-queue.journal")
+    private String file;
+
+    @Property(name = "size", value = "67108864")
+    private int size;
+
+    private final QueueEventProxy m_eventProxy;
+
+    private final JournalListener listener = new JournalListener();
+
+    private final ConcurrentMap<String, Integer> dictionary = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private int dictionaryCapacity;
+    private int dictionaryUsed;
+    private int recordCapacity;
+    private int nextId = UNKNOWN_ID + 1;
+
+    /**
+     * Set once a job type did not fit in the dictionary: new job types are then recorded as unknown
+     * without locking nor encoding them.
+     */
+    private volatile boolean dictionaryFull;
+
+    public QueueJournal(final @Requires QueueEventProxy m_eventProxy) {
+        this.m_eventProxy = m_eventProxy;
+    }
+
+    @Validate
+    public void start() throws IOException {
+        File journal = new File(file);
+        if (journal.exists()) {
+            File previous = new File(journal.getPath() + ".1");
+            if ((previous.exists() && !previous.delete()) || !journal.renameTo(previous)) {
+                throw new IOException("Cannot keep previous journal " + journal + " as " + previous);
+            }
+        }
+
+        raf = new RandomAccessFile(journal, "rw");
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        // Only job types are interned
+        dictionaryCapacity = size / 64;
+        recordCapacity = (size - HEADER_SIZE - dictionaryCapacity) / RECORD_SIZE;
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(DICTIONARY_CAPACITY_OFFSET, dictionaryCapacity);
+        buffer.putInt(RECORD_CAPACITY_OFFSET, recordCapacity);
+        buffer.putLong(CREATION_OFFSET, System.currentTimeMillis());
+        buffer.putInt(DICTIONARY_USED_OFFSET, 0);
+        // Strings of a previous journal are not in this one
+        dictionary.clear();
+        dictionaryUsed = 0;
+        nextId = UNKNOWN_ID + 1;
+        dictionaryFull = false;
+
+        m_eventProxy.addQueueListener(listener);
+    }
+
+    @Invalidate
+    public void stop() throws IOException {
+        m_eventProxy.removeQueueListener(listener);
+        buffer.force();
+        raf.close();
+    }
+
+    private void record(final int kind, final JobInfo info) {
+        long index = sequence.getAndIncrement();
+        int offset = HEADER_SIZE + dictionaryCapacity + (int) (index % recordCapacity) * RECORD_SIZE;
+        // Absolute puts only: each writer owns its slot
+        buffer.putInt(offset + KIND_OFFSET, kind);
+        buffer.putInt(offset + TYPE_OFFSET, intern(info.getJobType()));
+        putDescription(offset, info.getDescription());
+        buffer.putInt(offset + THREAD_OFFSET, (int) Thread.currentThread().getId());
+        buffer.putLong(offset + ENLISTMENT_OFFSET, info.getEnlistmentTime());
+        buffer.putLong(offset + WAIT_OFFSET, info.getWaitDuration());
+        buffer.putLong(offset + EXECUTION_OFFSET, info.getExecutionDuration());
+        buffer.putLong(offset + SEQUENCE_OFFSET, index + 1);
+    }
+
+    private void putDescription(final int offset, final String description) {
+        if (description == null) {
+            buffer.putInt(offset + DESCRIPTION_LENGTH_OFFSET, -1);
+            return;
+        }
+        buffer.putInt(offset + DESCRIPTION_LENGTH_OFFSET, description.length());
+        int chars = Math.min(description.length(), MAX_DESCRIPTION_CHARS);
+        for (int i = 0; i < chars; i++) {
+            buffer.putChar(offset + DESCRIPTION_OFFSET + (2 * i), description.charAt(i));
+        }
+    }
+
+    private int intern(final String value) {
+        if (value == null) {
+            return UNKNOWN_ID;
+        }
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (dictionaryFull) {
+            return UNKNOWN_ID;
+        }
+        return append(value);
+    }
+
+    private synchronized int append(final String value) {
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            return id;
+        }
+        String truncated = (value.length() > MAX_STRING_LENGTH) ? value.substring(0, MAX_STRING_LENGTH) : value;
+        byte[] bytes = truncated.getBytes(UTF_8);
+        if (dictionaryUsed + 8 + bytes.length > dictionaryCapacity) {
+            dictionaryFull = true;
+            return UNKNOWN_ID;
+        }
+        int offset = HEADER_SIZE + dictionaryUsed;
+        buffer.putInt(offset, bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + 4 + i, bytes[i]);
+        }
+        int assigned = nextId++;
+        buffer.putInt(offset + 4 + bytes.length, assigned);
+        dictionaryUsed += 8 + bytes.length;
+        buffer.putInt(DICTIONARY_USED_OFFSET, dictionaryUsed);
+        dictionary.put(value, assigned);
+        return assigned;
+    }
+
+    private class JournalListener extends EmptyQueueListener {
+        @Override
+        public void executed(final JobInfo info, final Object o) {
+            record(KIND_EXECUTED, info);
+        }
+
+        @Override
+        public void failed(final JobInfo info, final Throwable throwable) {
+            record(KIND_FAILED, info);
+        }
+    }
+}
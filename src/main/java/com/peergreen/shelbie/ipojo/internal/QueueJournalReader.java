@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static com.peergreen.shelbie.ipojo.internal.JournalFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.felix.ipojo.extender.queue.QueueListener;
+
+/**
+ * Reads a journal written by {@link QueueJournal}, without any running framework.
+ */
+class QueueJournalReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MappedByteBuffer buffer;
+    private final int dictionaryCapacity;
+    private final int recordCapacity;
+    private final long creationTime;
+    private final List<String> strings = new ArrayList<>();
+
+    QueueJournalReader(final File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            // The mapping stays valid once the file is closed
+            raf.close();
+        }
+        if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(MAGIC_OFFSET) != MAGIC)) {
+            throw new IOException(file + " is not an iPOJO queue journal");
+        }
+        if (buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Unsupported journal version " + buffer.getInt(VERSION_OFFSET));
+        }
+        dictionaryCapacity = buffer.getInt(DICTIONARY_CAPACITY_OFFSET);
+        recordCapacity = buffer.getInt(RECORD_CAPACITY_OFFSET);
+        creationTime = buffer.getLong(CREATION_OFFSET);
+        readDictionary(buffer.getInt(DICTIONARY_USED_OFFSET));
+    }
+
+    private void readDictionary(final int used) {
+        strings.add(UNKNOWN);
+        int offset = 0;
+        while (offset + 8 <= used) {
+            int length = buffer.getInt(HEADER_SIZE + offset);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(HEADER_SIZE + offset + 4 + i);
+            }
+            // Ids are assigned sequentially, from 1
+            strings.add(new String(bytes, UTF_8));
+            offset += 8 + length;
+        }
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    private String string(final int id) {
+        return ((id > 0) && (id < strings.size())) ? strings.get(id) : UNKNOWN;
+    }
+
+    private String description(final int offset) {
+        int length = buffer.getInt(offset + DESCRIPTION_LENGTH_OFFSET);
+        if (length < 0) {
+            return null;
+        }
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < Math.min(length, MAX_DESCRIPTION_CHARS); i++) {
+            description.append(buffer.getChar(offset + DESCRIPTION_OFFSET + (2 * i)));
+        }
+        if (length > MAX_DESCRIPTION_CHARS) {
+            description.append("...");
+        }
+        return description.toString();
+    }
+
+    /**
+     * Feed the given listener with every complete record of the journal (in storage order).
+     * @return number of replayed records
+     */
+    public long replay(final QueueListener listener) {
+        long count = 0;
+        for (int slot = 0; slot < recordCapacity; slot++) {
+            int offset = HEADER_SIZE + dictionaryCapacity + slot * RECORD_SIZE;
+            long sequence = buffer.getLong(offset + SEQUENCE_OFFSET);
+            // Empty slot, or torn write
+            if ((sequence <= 0) || ((sequence - 1) % recordCapacity != slot)) {
+                continue;
+            }
+            JobSnapshot job = new JobSnapshot(string(buffer.getInt(offset + TYPE_OFFSET)),
+                                              description(offset),
+                                              buffer.getLong(offset + ENLISTMENT_OFFSET),
+                                              buffer.getLong(offset + WAIT_OFFSET),
+                                              buffer.getLong(offset + EXECUTION_OFFSET));
+            if (buffer.getInt(offset + KIND_OFFSET) == KIND_FAILED) {
+                listener.failed(job, null);
+            } else {
+                listener.executed(job, null);
+            }
+            count++;
+        }
+        return count;
+    }
+}
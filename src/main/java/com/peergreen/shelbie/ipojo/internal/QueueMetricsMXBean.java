@@ -0,0 +1,50 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.Map;
+
+/**
+ * iPOJO's processing queues metrics, registered as {@value MetricsExporter#QUEUE_NAME}.
+ * Rates and averages are measured over the last minute, percentiles since the recording start (or reset).
+ */
+public interface QueueMetricsMXBean {
+
+    /**
+     * @return jobs currently executed, on every queue
+     */
+    long getExecuting();
+
+    /**
+     * @return jobs waiting, on every queue
+     */
+    long getWaiting();
+
+    /**
+     * @return jobs finished, on every queue
+     */
+    long getFinished();
+
+    double getEnlistedPerSecond();
+
+    double getCompletedPerSecond();
+
+    double getFailedPerSecond();
+
+    long getAverageWait();
+
+    long getAverageExecution();
+
+    long getRecordingSince();
+
+    Map<String, JobTypeMetrics> getJobTypes();
+}
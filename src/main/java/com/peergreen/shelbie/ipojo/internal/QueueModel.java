@@ -0,0 +1,111 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Queueing estimates for a pool of {@code c} workers fed by a single FIFO queue.
+ * Steady state follows an M/M/c model (Poisson arrivals, exponential execution times),
+ * bursts (such as the platform startup) are replayed from a recorded timeline.
+ */
+final class QueueModel {
+
+    /**
+     * Upper bound of recommended worker counts (unreachable wait targets).
+     */
+    static final int MAX_WORKERS = 1024;
+
+    private static final Comparator<ProfiledJob> BY_ENLISTMENT = new Comparator<ProfiledJob>() {
+        @Override
+        public int compare(final ProfiledJob first, final ProfiledJob second) {
+            return Long.compare(first.getEnlistmentTime(), second.getEnlistmentTime());
+        }
+    };
+
+    private QueueModel() {
+    }
+
+    /**
+     * @param workers number of workers (c)
+     * @param load offered load in workers (arrival rate x mean execution time)
+     * @return probability that an arriving job has to wait (Erlang C), 1 if the pool is saturated
+     */
+    static double waitProbability(final int workers, final double load) {
+        if (load <= 0) {
+            return 0;
+        }
+        if (load >= workers) {
+            return 1;
+        }
+        // Erlang B recurrence is numerically stable, unlike the factorial based formula
+        double blocking = 1;
+        for (int k = 1; k <= workers; k++) {
+            blocking = (load * blocking) / (k + (load * blocking));
+        }
+        return (workers * blocking) / (workers - (load * (1 - blocking)));
+    }
+
+    /**
+     * @param execution mean execution time (ms)
+     * @return mean waiting time (ms), {@link Double#POSITIVE_INFINITY} if the pool is saturated
+     */
+    static double meanWait(final int workers, final double load, final double execution) {
+        if (load >= workers) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (waitProbability(workers, load) * execution) / (workers - load);
+    }
+
+    /**
+     * @return smallest worker count keeping utilization and mean wait under the given targets
+     */
+    static int recommend(final double load, final double execution, final double utilization, final double wait) {
+        int workers = Math.max(1, (int) Math.ceil(load / Math.max(utilization, 0.01)));
+        while ((workers < MAX_WORKERS) && (meanWait(workers, load, execution) > wait)) {
+            workers++;
+        }
+        return workers;
+    }
+
+    /**
+     * Replay the recorded jobs (in enlistment order, with their recorded execution times) on a pool of the given size.
+     * Jobs enlisting other jobs are not modelled: children keep their recorded enlistment time.
+     * @return duration (ms) between the first enlistment and the last job end
+     */
+    static long replay(final List<ProfiledJob> recorded, final int workers) {
+        if (recorded.isEmpty()) {
+            return 0;
+        }
+        List<ProfiledJob> jobs = new ArrayList<>(recorded);
+        Collections.sort(jobs, BY_ENLISTMENT);
+
+        long origin = jobs.get(0).getEnlistmentTime();
+        long end = origin;
+        // Time at which each worker becomes available
+        PriorityQueue<Long> available = new PriorityQueue<>(workers);
+        for (int i = 0; i < workers; i++) {
+            available.add(origin);
+        }
+        for (ProfiledJob job : jobs) {
+            long start = Math.max(available.poll(), job.getEnlistmentTime());
+            long finish = start + job.getJob().getExecutionDuration();
+            available.add(finish);
+            end = Math.max(end, finish);
+        }
+        return end - origin;
+    }
+}
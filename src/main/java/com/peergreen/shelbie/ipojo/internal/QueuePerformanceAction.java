@@ -13,13 +13,10 @@ package com.peergreen.shelbie.ipojo.internal;
 
 import static java.lang.String.format;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
-import java.util.HashMap;
+import java.io.File;
+import java.io.PrintStream;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.gogo.commands.Action;
 import org.apache.felix.gogo.commands.Command;
@@ -27,9 +24,6 @@ import org.apache.felix.gogo.commands.Option;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.HandlerDeclaration;
 import org.apache.felix.ipojo.annotations.Requires;
-import org.apache.felix.ipojo.extender.queue.JobInfo;
-import org.apache.felix.ipojo.extender.queue.QueueListener;
-import org.apache.felix.ipojo.extender.queue.debug.QueueEventProxy;
 import org.apache.felix.service.command.CommandSession;
 import org.fusesource.jansi.Ansi;
 
@@ -40,269 +34,232 @@ import org.fusesource.jansi.Ansi;
 @HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
 public class QueuePerformanceAction implements Action {
 
+    private static final int DEFAULT_WORSTS = 5;
+
     @Option(name = "-w",
             aliases = "--worst",
             description = "Number of worst jobs to display (5 by default)",
             required = false)
-    private int worsts = 5;
-
-    private final QueueEventProxy m_eventProxy;
+    private int worsts = DEFAULT_WORSTS;
 
-    public QueuePerformanceAction(final @Requires QueueEventProxy m_eventProxy) {
-        this.m_eventProxy = m_eventProxy;
-    }
-
-    public Object execute(final CommandSession session) throws Exception {
+    @Option(name = "-p",
+            aliases = "--worst-per-type",
+            description = "Number of worst jobs to display for each job type (none by default)",
+            required = false)
+    private int worstsPerType = 0;
 
-        AccumulatedDurationListener accumulated = new AccumulatedDurationListener();
-        PerJobTypeAccumulator partitioned = new PerJobTypeAccumulator();
-        WorstJobsFinder worstJobsFinder = new WorstJobsFinder(worsts);
-        m_eventProxy.addQueueListener(accumulated);
-        m_eventProxy.addQueueListener(partitioned);
-        m_eventProxy.addQueueListener(worstJobsFinder);
+    @Option(name = "-t",
+            aliases = "--window",
+            description = "Only report jobs finished during the last given seconds (whole recording by default)",
+            required = false)
+    private long window = -1;
+
+    @Option(name = "-g",
+            aliases = "--group-by",
+            description = "Partition jobs by type, bundle or regex:<pattern> (over the description),"
+                          + " repeat to combine keys",
+            required = false,
+            multiValued = true)
+    private List<String> groupBy;
+
+    @Option(name = "--max-groups",
+            description = "Maximum number of partitions, other jobs are accounted in an overflow partition"
+                          + " (100 by default)",
+            required = false)
+    private int maxGroups = 100;
 
-        Ansi buffer = Ansi.ansi();
+    @Option(name = "-s",
+            aliases = "--save",
+            description = "Save the statistics aggregates to the given file, to be used as a baseline",
+            required = false)
+    private File save;
 
-        printBanner(buffer, "Summary (globally accumulated times)");
-
-        // Prints totals
-        buffer.render("Executed @|bold %6d|@ jobs%n", accumulated.numberOfJobs);
-        buffer.render("Total execution: @|bold %6d|@ ms (avg:%4d, med:%4d)%n",
-                      accumulated.total,
-                      (accumulated.total / accumulated.numberOfJobs),
-                      median(accumulated.totalValues));
-        buffer.render("Total waiting  : @|bold %6d|@ ms (avg:%4d, med:%4d)%n",
-                      accumulated.waiting,
-                      (accumulated.waiting / accumulated.numberOfJobs),
-                      median(accumulated.waitingValues));
-
-        buffer.newline();
-
-        printBanner(buffer, "Per job-type partitions");
-
-        // Prints per-jobtype
-        for (PerJobInfos partition : partitioned.partitions.values()) {
-            buffer.render("@|bold %s|@ / %d jobs%n", partition.jobType, partition.numberOfJobs);
-            buffer.render("  Total execution: @|bold %6d|@ ms (min:%4d, max:%4d, avg:%4d, med:%4d)%n",
-                          partition.execution,
-                          partition.minExecution,
-                          partition.maxExecution,
-                          (partition.execution / partition.numberOfJobs),
-                          median(partition.totalValues));
-            buffer.render("  Total waiting  : @|bold %6d|@ ms (min:%4d, max:%4d, avg:%4d, med:%4d)%n",
-                          partition.waiting,
-                          partition.minWaiting,
-                          partition.maxWaiting,
-                          (partition.waiting / partition.numberOfJobs),
-                          median(partition.waitingValues));
-        }
+    @Option(name = "-c",
+            aliases = "--compare",
+            description = "Compare the statistics with the baseline saved in the given file (same grouping)",
+            required = false)
+    private File compare;
 
-        buffer.newline();
+    @Option(name = "--threshold",
+            description = "Relative increase of total or p99 execution time reported as a regression, in percent"
+                          + " (10 by default)",
+            required = false)
+    private int threshold = 10;
 
-        printBanner(buffer, format("%d worst jobs (most time consumers)", worstJobsFinder.size));
+    @Option(name = "--min-delta",
+            description = "Minimum increase (in ms) reported as a regression, to ignore noise (10 by default)",
+            required = false)
+    private long minDelta = 10;
 
-        Collections.sort(worstJobsFinder.worsts, Collections.reverseOrder(new WorstJobInfoComparator()));
-        int index = 0;
-        for (JobInfo info : worstJobsFinder.worsts) {
-            buffer.render("%3d [@|bold %s|@] %s%n", index++, info.getJobType(), info.getDescription());
-            buffer.render("    Executed in @|bold,red %d|@ ms%n", info.getExecutionDuration());
-            buffer.render("    Enlisted at %1$tT %1$tL ms%n", new Date(info.getEnlistmentTime()));
-            buffer.render("    Waited  for %d ms%n", info.getWaitDuration());
-        }
+    @Option(name = "-d",
+            aliases = "--duration",
+            description = "Capture the jobs finished during the next given seconds, in the background"
+                          + " (see ipojo:queue-capture)",
+            required = false)
+    private long duration = -1;
 
-        System.out.print(buffer.toString());
+    @Option(name = "--sample",
+            description = "With --duration, only record one job out of N (1/N), counts and totals are extrapolated",
+            required = false)
+    private String sample;
 
-        m_eventProxy.removeQueueListener(accumulated);
-        m_eventProxy.removeQueueListener(partitioned);
-        m_eventProxy.removeQueueListener(worstJobsFinder);
+    @Option(name = "-r",
+            aliases = "--reset",
+            description = "When activated, reset the recorded statistics once displayed",
+            required = false)
+    private boolean reset = false;
 
-        return null;
-    }
+    @Option(name = "--format",
+            description = "Output format: text (default), json (one object per line, totals first with no partition)"
+                          + " or csv",
+            required = false)
+    private String format;
 
-    private long median(final List<Long> values) {
-        if (values.isEmpty()) {
-            return 0;
-        }
-        return values.get((values.size() + 1) / 2);
-    }
+    private final QueueEventRecorder m_recorder;
+    private final QueueCaptureManager m_captures;
 
-    private void printBanner(final Ansi buffer, final String title) {
-        buffer.render("@|bold ------------------------------------------------------|@");
-        buffer.newline();
-        buffer.render("@|bold  > %s|@%n", title);
-        buffer.render("@|bold ------------------------------------------------------|@");
-        buffer.newline();
+    public QueuePerformanceAction(final @Requires QueueEventRecorder m_recorder,
+                                  final @Requires QueueCaptureManager m_captures) {
+        this.m_recorder = m_recorder;
+        this.m_captures = m_captures;
     }
 
+    public Object execute(final CommandSession session) throws Exception {
 
-    private static class EmptyQueueListener implements QueueListener {
-
-        @Override
-        public void enlisted(final JobInfo info) {
-
-        }
-
-        @Override
-        public void started(final JobInfo info) {
-
+        OutputFormat outputFormat = OutputFormat.parse(format);
+        if ((outputFormat != OutputFormat.TEXT) && ((duration > 0) || (compare != null))) {
+            throw new IllegalArgumentException("--duration and --compare are only available with the text format");
         }
-
-        @Override
-        public void executed(final JobInfo info, final Object o) {
-            ended(info);
+        if (duration > 0) {
+            return capture(session);
         }
-
-        @Override
-        public void failed(final JobInfo info, final Throwable throwable) {
-            ended(info);
+        if (sample != null) {
+            throw new IllegalArgumentException("--sample requires --duration");
         }
 
-        protected void ended(final JobInfo info) {
-
+        QueueStatistics statistics;
+        if (groupBy != null) {
+            // Only retained jobs can be partitioned by another key
+            PerJobTypeAccumulator partitioned = new PerJobTypeAccumulator(QueueEventRecorder.MAX_WORSTS_PER_TYPE,
+                                                                          GroupingKeys.parse(groupBy),
+                                                                          maxGroups);
+            long duration = (window > 0) ? TimeUnit.SECONDS.toMillis(window) : Long.MAX_VALUE;
+            statistics = m_recorder.getStatistics(duration, partitioned);
+        } else if (window > 0) {
+            statistics = m_recorder.getStatistics(TimeUnit.SECONDS.toMillis(window));
+        } else {
+            statistics = m_recorder.getStatistics();
         }
-    }
 
-    private static class WorstJobInfoComparator implements Comparator<JobInfo> {
-        @Override
-        public int compare(final JobInfo first, final JobInfo second) {
-            if (first.getExecutionDuration() > second.getExecutionDuration()) {
-                return 1;
+        if (outputFormat != OutputFormat.TEXT) {
+            QueueStatisticsPrinter.write(RecordWriter.of(outputFormat,
+                                                         Consoles.writerOf(session),
+                                                         QueueStatisticsPrinter.STATISTICS_COLUMNS),
+                                         statistics);
+            if (save != null) {
+                StatisticsSnapshot.of(statistics).write(save);
             }
-            if (first.getExecutionDuration() < second.getExecutionDuration()) {
-                return -1;
+            if (reset) {
+                m_recorder.resetStatistics();
             }
-
-            // do not return 0, otherwise one of the 2 elements is crushed (removed from the list)
-            return (int) (first.getWaitDuration() - second.getWaitDuration());
+            return null;
         }
-    }
 
-    private static class AccumulatedDurationListener extends EmptyQueueListener {
+        StatisticsSnapshot baseline = null;
+        StatisticsSnapshot snapshot = StatisticsSnapshot.of(statistics);
+        if (compare != null) {
+            baseline = StatisticsSnapshot.read(compare);
+            if (!baseline.getGrouping().equals(snapshot.getGrouping())) {
+                // Partitions of different groupings have nothing in common
+                throw new IllegalArgumentException(format("%s is partitioned by %s, current statistics by %s:"
+                                                          + " use the baseline --group-by",
+                                                          compare.getName(),
+                                                          baseline.getGrouping(),
+                                                          snapshot.getGrouping()));
+            }
+        }
 
-        private long total = 0;
-        private long waiting = 0;
-        private int numberOfJobs = 0;
-        private List<Long> totalValues = new ArrayList<>();
-        private List<Long> waitingValues = new ArrayList<>();
+        Ansi buffer = Ansi.ansi();
 
-        @Override
-        public void started(final JobInfo info) {
-            long waitDuration = info.getWaitDuration();
-            waiting += waitDuration;
-            waitingValues.add(waitDuration);
-            numberOfJobs++;
+        if (window > 0) {
+            QueueStatisticsPrinter.printBanner(buffer, format("Summary (jobs finished during the last %d s)", window));
+        } else if (groupBy != null) {
+            QueueStatisticsPrinter.printBanner(buffer, "Summary (retained jobs)");
+            buffer.render("Recording since %1$tF %1$tT%n", statistics.getSince());
+        } else {
+            QueueStatisticsPrinter.printBanner(buffer, "Summary (globally accumulated times)");
+            buffer.render("Recording since %1$tF %1$tT%n", statistics.getSince());
         }
-
-        @Override
-        protected void ended(final JobInfo info) {
-            long executionDuration = info.getExecutionDuration();
-            total += executionDuration;
-            totalValues.add(executionDuration);
+        if (statistics.truncated) {
+            buffer.render("@|yellow Truncated to the last %d recorded jobs|@%n",
+                          QueueEventRecorder.RING_CAPACITY);
         }
 
-    }
-
-    private static class PerJobTypeAccumulator extends EmptyQueueListener {
-        private Map<String, PerJobInfos> partitions = new HashMap<>();
-
-        @Override
-        public void started(final JobInfo info) {
-            PerJobInfos infos = getPerJobInfos(info);
-            long waitDuration = info.getWaitDuration();
-            infos.waiting += waitDuration;
-            infos.waitingValues.add(waitDuration);
-            infos.numberOfJobs++;
-
-            if (infos.maxWaiting < waitDuration) {
-                infos.maxWaiting = waitDuration;
-            }
-
-            if (infos.minWaiting > waitDuration) {
-                infos.minWaiting = waitDuration;
-            }
+        PrintStream out = Consoles.of(session);
+        out.print(buffer);
+
+        if (baseline != null) {
+            out.print(Ansi.ansi().render("Compared with @|bold %s|@ (saved %2$tF %2$tT, partitioned by %3$s)%n",
+                                         compare.getName(),
+                                         baseline.getSaved(),
+                                         baseline.getGrouping()));
+            QueueStatisticsPrinter.printComparison(out,
+                                                   baseline,
+                                                   snapshot,
+                                                   threshold / 100.0,
+                                                   minDelta);
+        } else {
+            new QueueStatisticsPrinter(worsts, worstsPerType).print(out, statistics);
         }
 
-        private PerJobInfos getPerJobInfos(final JobInfo info) {
-            if (!partitions.containsKey(info.getJobType())) {
-                partitions.put(info.getJobType(), new PerJobInfos(info.getJobType()));
-            }
-            return partitions.get(info.getJobType());
+        if (save != null) {
+            snapshot.write(save);
+            out.print(Ansi.ansi().render("Statistics aggregates saved to @|bold %s|@%n", save.getAbsolutePath()));
         }
+        out.flush();
 
-        @Override
-        protected void ended(final JobInfo info) {
-            PerJobInfos infos = getPerJobInfos(info);
-            long executionDuration = info.getExecutionDuration();
-            infos.totalValues.add(executionDuration);
-            infos.execution += executionDuration;
-
-            if (infos.maxExecution < executionDuration) {
-                infos.maxExecution = executionDuration;
-            }
-
-            if (infos.minExecution > executionDuration) {
-                infos.minExecution = executionDuration;
-            }
-
+        if (reset) {
+            m_recorder.resetStatistics();
         }
 
+        return null;
     }
 
-    private static class PerJobInfos {
-        private final String jobType;
-        long execution = 0;
-        long minExecution = Integer.MAX_VALUE;
-        long maxExecution = Integer.MIN_VALUE;
-        long waiting = 0;
-        long minWaiting = Integer.MAX_VALUE;
-        long maxWaiting = Integer.MIN_VALUE;
-        int numberOfJobs = 0;
-        List<Long> totalValues = new ArrayList<>();
-        List<Long> waitingValues = new ArrayList<>();
-
-        public PerJobInfos(final String jobType) {
-            this.jobType = jobType;
-        }
-    }
-
-    private static class WorstJobsFinder extends EmptyQueueListener {
-        private final int size;
-
-        private List<JobInfo> worsts = new ArrayList<>();
-
-        public WorstJobsFinder(final int size) {
-            this.size = size;
-        }
-
-        @Override
-        protected void ended(final JobInfo info) {
-            if (worsts.size() < size) {
-                worsts.add(info);
-            } else {
-                JobInfo minimal = findMinimalJob();
-                long minimum = (minimal == null) ? Long.MIN_VALUE : minimal.getExecutionDuration();
-                if (info.getExecutionDuration() > minimum) {
-                    add(info);
-                }
-            }
+    private Object capture(final CommandSession session) {
+        // Statistics only exist once the capture finished, they are reported (and saved) by ipojo:queue-capture
+        if ((save != null) || (compare != null) || reset || (window > 0)) {
+            throw new IllegalArgumentException("--save, --compare, --reset and --window do not apply to --duration:"
+                                               + " use ipojo:queue-capture show <id> --save <file> once finished");
         }
-
-        private void add(final JobInfo info) {
-            // Remove worst element
-            worsts.remove(findMinimalJob());
-            worsts.add(info);
+        if ((worsts != DEFAULT_WORSTS) || (worstsPerType != 0)) {
+            throw new IllegalArgumentException("--worst and --worst-per-type do not apply to --duration:"
+                                               + " use them with ipojo:queue-capture show <id>");
         }
-
-        private JobInfo findMinimalJob() {
-            JobInfo minimal = null;
-            long minimum = Long.MAX_VALUE;
-            for (JobInfo info : worsts) {
-                if (info.getExecutionDuration() < minimum) {
-                    minimum = info.getExecutionDuration();
-                    minimal = info;
-                }
+        // Command returns at once, the session runs in the background
+        int sampling = 1;
+        if (sample != null) {
+            String rate = sample.startsWith("1/") ? sample.substring(2) : sample;
+            sampling = Integer.parseInt(rate.trim());
+            if (sampling < 1) {
+                throw new IllegalArgumentException("Invalid sampling rate: " + sample);
             }
-            return minimal;
         }
+        PerJobTypeAccumulator partitioned = new PerJobTypeAccumulator(QueueEventRecorder.MAX_WORSTS_PER_TYPE,
+                                                                      GroupingKeys.parse(groupBy),
+                                                                      maxGroups);
+        CaptureSession capture = m_captures.start(TimeUnit.SECONDS.toMillis(duration),
+                                                  sampling,
+                                                  QueueEventRecorder.MAX_WORSTS,
+                                                  partitioned);
+
+        PrintStream out = Consoles.of(session);
+        out.print(Ansi.ansi().render("Capture @|bold #%d|@ started for %d s (sampling 1/%d)."
+                                     + " See ipojo:queue-capture show %1$d%n",
+                                     capture.getId(),
+                                     duration,
+                                     sampling));
+        out.flush();
+        return null;
     }
+
 }
\ No newline at end of file
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.gogo.commands.Option;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "queue-profile",
+         scope = "ipojo",
+         description = "Profile the iPOJO's processing queue timeline (workers utilization, idle gaps, critical path)")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class QueueProfileAction implements Action {
+
+    @Option(name = "-t",
+            aliases = "--trace",
+            description = "Export the timeline to the given file (Chrome trace-event JSON)",
+            required = false)
+    private File trace;
+
+    @Option(name = "-b",
+            aliases = "--buckets",
+            description = "Number of periods used to display workers utilization (20 by default)",
+            required = false)
+    private int buckets = 20;
+
+    @Option(name = "-g",
+            aliases = "--gap",
+            description = "Minimal idle gap duration to report, in ms (50 by default)",
+            required = false)
+    private long gap = 50;
+
+    @Option(name = "-n",
+            aliases = "--path",
+            description = "Maximum number of critical path steps to display (20 by default)",
+            required = false)
+    private int steps = 20;
+
+    @Option(name = "-r",
+            aliases = "--reset",
+            description = "When activated, clear the recorded timeline once processed and start a new profile",
+            required = false)
+    private boolean reset = false;
+
+    @Option(name = "-s",
+            aliases = "--stop",
+            description = "When activated, stop recording (the timeline is kept)",
+            required = false)
+    private boolean stop = false;
+
+    private final QueueProfiler m_profiler;
+
+    public QueueProfileAction(final @Requires QueueProfiler m_profiler) {
+        this.m_profiler = m_profiler;
+    }
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        PrintStream out = Consoles.of(session);
+        if (stop) {
+            m_profiler.stopProfile();
+        }
+        ProfileAnalysis analysis = new ProfileAnalysis(m_profiler.getJobs());
+        long origin = analysis.getOrigin();
+
+        Ansi buffer = Ansi.ansi();
+        buffer.render("@|bold %d|@ jobs on @|bold %d|@ worker(s), from %tT to %tT (%d ms)%n",
+                      analysis.getJobs().size(),
+                      analysis.getWorkers(),
+                      origin,
+                      analysis.getEnd(),
+                      analysis.getEnd() - origin);
+        if (m_profiler.isFull()) {
+            buffer.render("@|yellow Timeline full (limited to %d jobs), later jobs were not recorded|@%n",
+                          QueueProfiler.CAPACITY);
+        } else if (m_profiler.isProfiling()) {
+            buffer.render("Still recording (use --stop to end the profile)%n");
+        }
+        buffer.newline();
+
+        // Utilization
+        buffer.render("@|bold Workers utilization|@").newline();
+        double[] utilization = analysis.getUtilization(buckets);
+        long length = Math.max(1, (analysis.getEnd() - origin) / Math.max(1, buckets));
+        for (int i = 0; i < utilization.length; i++) {
+            int percent = (int) Math.round(utilization[i] * 100);
+            buffer.render("  +%6d ms %3d%% %s%n", i * length, percent, bar(percent));
+        }
+        buffer.newline();
+
+        // Gaps
+        List<long[]> gaps = analysis.getIdleGaps(gap);
+        buffer.render("@|bold %d idle gap(s) of at least %d ms|@%n", gaps.size(), gap);
+        for (long[] idle : gaps) {
+            buffer.render("  +%6d ms -> +%6d ms (%d ms)%n", idle[0] - origin, idle[1] - origin, idle[1] - idle[0]);
+        }
+        buffer.newline();
+        out.print(buffer);
+
+        // Critical path
+        List<ProfiledJob> path = analysis.getCriticalPath();
+        long executing = 0;
+        long waiting = 0;
+        for (ProfiledJob job : path) {
+            executing += job.getJob().getExecutionDuration();
+            waiting += job.getJob().getWaitDuration();
+        }
+        buffer = Ansi.ansi();
+        buffer.render("@|bold Critical path: %d job(s), %d ms executing, %d ms waiting|@%n",
+                      path.size(),
+                      executing,
+                      waiting);
+        int index = 0;
+        for (ProfiledJob job : path.subList(Math.max(0, path.size() - steps), path.size())) {
+            JobSnapshot snapshot = job.getJob();
+            buffer.render("  %3d +%6d ms [@|bold %s|@] %s (exec:%d, wait:%d)%n",
+                          index++,
+                          job.getStartTime() - origin,
+                          snapshot.getJobType(),
+                          snapshot.getDescription(),
+                          snapshot.getExecutionDuration(),
+                          snapshot.getWaitDuration());
+        }
+        out.print(buffer);
+
+        if (trace != null) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(trace),
+                                                                      Charset.forName("UTF-8")));
+            try {
+                new ChromeTraceWriter(writer).write(analysis, m_profiler.getThreads(), new HashSet<>(path));
+            } finally {
+                writer.close();
+            }
+            out.print(Ansi.ansi().render("Trace written to @|bold %s|@%n", trace.getAbsolutePath()));
+        }
+
+        if (reset) {
+            m_profiler.startProfile();
+        }
+
+        out.flush();
+        return null;
+    }
+
+    private static String bar(final int percent) {
+        StringBuilder bar = new StringBuilder();
+        for (int i = 0; i < percent / 5; i++) {
+            bar.append('#');
+        }
+        return bar.toString();
+    }
+
+}
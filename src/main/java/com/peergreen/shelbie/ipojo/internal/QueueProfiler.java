@@ -0,0 +1,162 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.ipojo.extender.queue.debug.QueueEventProxy;
+
+/**
+ * Records the timeline of the first {@value #CAPACITY} jobs of a profile, with the worker thread that executed
+ * each of them. A profile starts at activation (the startup profile) or with {@link #startProfile()}.
+ * The listener is only registered while a profile is taken: it is removed once the timeline is full
+ * or with {@link #stopProfile()}, so the queue does not pay for the profiler afterwards.
+ * The executed/failed callbacks are invoked by the worker itself, which identifies the thread.
+ */
+@Component
+@Provides(specifications = QueueProfiler.class)
+public class QueueProfiler {
+
+    public static final int CAPACITY = 65536;
+
+    private final QueueEventProxy m_eventProxy;
+
+    private final ConcurrentMap<Long, String> threads = new ConcurrentHashMap<>();
+
+    private final ProfilingListener listener = new ProfilingListener();
+
+    private final AtomicBoolean profiling = new AtomicBoolean();
+
+    private volatile Timeline timeline = new Timeline();
+
+    public QueueProfiler(final @Requires QueueEventProxy m_eventProxy) {
+        this.m_eventProxy = m_eventProxy;
+    }
+
+    @Validate
+    public void start() {
+        startProfile();
+    }
+
+    @Invalidate
+    public void stop() {
+        stopProfile();
+    }
+
+    /**
+     * Clear the timeline and record the next jobs.
+     */
+    public void startProfile() {
+        timeline = new Timeline();
+        if (profiling.compareAndSet(false, true)) {
+            m_eventProxy.addQueueListener(listener);
+        }
+    }
+
+    /**
+     * Stop recording, the timeline is kept.
+     */
+    public void stopProfile() {
+        if (profiling.compareAndSet(true, false)) {
+            m_eventProxy.removeQueueListener(listener);
+        }
+    }
+
+    public boolean isProfiling() {
+        return profiling.get();
+    }
+
+    /**
+     * @return recorded jobs, in completion order
+     */
+    public List<ProfiledJob> getJobs() {
+        return timeline.getJobs();
+    }
+
+    /**
+     * @return {@literal true} if the timeline is full (later jobs were not recorded)
+     */
+    public boolean isFull() {
+        return timeline.next.get() >= CAPACITY;
+    }
+
+    /**
+     * @return worker thread names, by thread id
+     */
+    public Map<Long, String> getThreads() {
+        return Collections.unmodifiableMap(threads);
+    }
+
+    private static class Timeline {
+        private final AtomicReferenceArray<ProfiledJob> jobs = new AtomicReferenceArray<>(CAPACITY);
+        private final AtomicInteger next = new AtomicInteger();
+
+        /**
+         * @return the slot of the next job, or -1 if the timeline is full
+         */
+        int claim() {
+            int index = next.getAndIncrement();
+            return (index < CAPACITY) ? index : -1;
+        }
+
+        void set(final int index, final ProfiledJob job) {
+            jobs.set(index, job);
+        }
+
+        List<ProfiledJob> getJobs() {
+            int size = Math.min(next.get(), CAPACITY);
+            List<ProfiledJob> selected = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                ProfiledJob job = jobs.get(i);
+                // Slot may have been claimed but not yet written
+                if (job != null) {
+                    selected.add(job);
+                }
+            }
+            return selected;
+        }
+    }
+
+    private class ProfilingListener extends EmptyQueueListener {
+        @Override
+        protected void ended(final JobInfo info) {
+            Timeline current = timeline;
+            int index = current.claim();
+            if (index < 0) {
+                // Unless a new profile was started meanwhile
+                if (timeline == current) {
+                    stopProfile();
+                }
+                return;
+            }
+            Thread thread = Thread.currentThread();
+            if (!threads.containsKey(thread.getId())) {
+                threads.putIfAbsent(thread.getId(), thread.getName());
+            }
+            current.set(index, new ProfiledJob(JobSnapshot.of(info), thread.getId()));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.COMPLETED;
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.ENLISTED;
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.FAILED;
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.STARTED;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "queue-rate",
+         scope = "ipojo",
+         description = "Show iPOJO's processing queue throughput and latencies over sliding windows")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class QueueRateAction implements Action {
+
+    private static final int[] WINDOWS = {1, 10, 60, 300};
+
+    private final QueueEventRecorder m_recorder;
+
+    public QueueRateAction(final @Requires QueueEventRecorder m_recorder) {
+        this.m_recorder = m_recorder;
+    }
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        Ansi buffer = Ansi.ansi();
+        buffer.render("@|bold Window | Enlisted/s |  Started/s | Completed/s |   Failed/s | Avg wait | Avg exec|@");
+        buffer.newline();
+
+        for (int window : WINDOWS) {
+            RateCounters.Rates rates = m_recorder.getRates().getRates(window);
+            buffer.render("%6s | %10.1f | %10.1f | %11.1f | %10.1f | %5d ms | %5d ms%n",
+                          label(window),
+                          rates.perSecond(ENLISTED),
+                          rates.perSecond(STARTED),
+                          rates.perSecond(COMPLETED),
+                          rates.perSecond(FAILED),
+                          rates.getAverageWait(),
+                          rates.getAverageExecution());
+        }
+
+        Consoles.of(session).print(buffer);
+        return null;
+    }
+
+    private static String label(final int window) {
+        if (window % 60 == 0) {
+            return (window / 60) + "min";
+        }
+        return window + "s";
+    }
+
+}
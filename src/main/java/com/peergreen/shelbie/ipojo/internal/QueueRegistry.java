@@ -0,0 +1,105 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.ipojo.annotations.Bind;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Unbind;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.apache.felix.ipojo.extender.queue.QueueService;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Shared view of every bound iPOJO {@link QueueService} (whatever its mode), for the commands and components
+ * reporting on all the queues. The finished count of each queue is sampled every second, so finished jobs rates
+ * do not depend on who displays them.
+ */
+@Component
+@Provides(specifications = QueueRegistry.class)
+public class QueueRegistry {
+
+    /**
+     * Bound queues, sorted by service id.
+     */
+    private final ConcurrentNavigableMap<Long, BoundQueue> queues = new ConcurrentSkipListMap<>();
+
+    private ScheduledExecutorService sampler;
+
+    @Validate
+    public synchronized void start() {
+        sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "iPOJO queue rates sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                for (BoundQueue queue : queues.values()) {
+                    queue.sample(now);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Invalidate
+    public synchronized void stop() {
+        sampler.shutdownNow();
+        sampler = null;
+    }
+
+    @Bind(aggregate = true, optional = true)
+    public void bindQueueService(QueueService queue, ServiceReference reference) {
+        BoundQueue bound = new BoundQueue(queue, reference);
+        queues.put(bound.getServiceId(), bound);
+    }
+
+    @Unbind
+    public void unbindQueueService(ServiceReference reference) {
+        queues.remove((Long) reference.getProperty(Constants.SERVICE_ID));
+    }
+
+    /**
+     * @return bound queues, sorted by service id
+     */
+    public List<BoundQueue> getQueues() {
+        return new ArrayList<>(queues.values());
+    }
+
+    /**
+     * @return waiting jobs of every queue
+     */
+    public long getWaiters() {
+        long waiters = 0;
+        for (BoundQueue queue : queues.values()) {
+            waiters += queue.getService().getWaiters();
+        }
+        return waiters;
+    }
+
+}
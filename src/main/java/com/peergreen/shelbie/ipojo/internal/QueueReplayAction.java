@@ -0,0 +1,85 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Argument;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.gogo.commands.Option;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "queue-replay",
+         scope = "ipojo",
+         description = "Show iPOJO's processing queue performance recorded in a journal file")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class QueueReplayAction implements Action {
+
+    @Argument(name = "file",
+              description = "Journal file to replay",
+              required = true)
+    private File file;
+
+    @Option(name = "-w",
+            aliases = "--worst",
+            description = "Number of worst jobs to display (5 by default)",
+            required = false)
+    private int worsts = 5;
+
+    @Option(name = "-p",
+            aliases = "--worst-per-type",
+            description = "Number of worst jobs to display for each job type (none by default)",
+            required = false)
+    private int worstsPerType = 0;
+
+    @Option(name = "-g",
+            aliases = "--group-by",
+            description = "Partition jobs by type, bundle or regex:<pattern> (over the description),"
+                          + " repeat to combine keys",
+            required = false,
+            multiValued = true)
+    private List<String> groupBy;
+
+    @Option(name = "--max-groups",
+            description = "Maximum number of partitions, other jobs are accounted in an overflow partition"
+                          + " (100 by default)",
+            required = false)
+    private int maxGroups = 100;
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        QueueJournalReader reader = new QueueJournalReader(file);
+        PerJobTypeAccumulator partitioned = new PerJobTypeAccumulator(Math.max(worstsPerType, 0),
+                                                                      GroupingKeys.parse(groupBy),
+                                                                      maxGroups);
+        QueueStatistics statistics = new QueueStatistics(reader.getCreationTime(), Math.max(worsts, 0), partitioned);
+        long count = reader.replay(statistics);
+
+        PrintStream out = Consoles.of(session);
+        Ansi buffer = Ansi.ansi();
+        QueueStatisticsPrinter.printBanner(buffer, "Summary (replayed from " + file.getName() + ")");
+        buffer.render("Journal started %1$tF %1$tT, %2$d records replayed%n", reader.getCreationTime(), count);
+        out.print(buffer);
+
+        new QueueStatisticsPrinter(worsts, worstsPerType).print(out, statistics);
+        out.flush();
+        return null;
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Argument;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.gogo.commands.Option;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "queue-sampler",
+         scope = "ipojo",
+         description = "Sample the stacks of slow iPOJO's queue jobs (start, stop, show or clear)")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class QueueSamplerAction implements Action {
+
+    @Argument(name = "action",
+              description = "One of start, stop, show (default) or clear",
+              required = false)
+    private String action = "show";
+
+    @Option(name = "-t",
+            aliases = "--threshold",
+            description = "Execution time (in ms) after which a job is sampled (1000 by default)",
+            required = false)
+    private long threshold = 1000;
+
+    @Option(name = "-i",
+            aliases = "--interval",
+            description = "Sampling interval in ms (50 by default)",
+            required = false)
+    private long interval = 50;
+
+    @Option(name = "-n",
+            aliases = "--stacks",
+            description = "Number of stacks to display (10 by default)",
+            required = false)
+    private int limit = 10;
+
+    @Option(name = "-d",
+            aliases = "--depth",
+            description = "Number of innermost frames displayed per stack (8 by default)",
+            required = false)
+    private int depth = 8;
+
+    @Option(name = "-f",
+            aliases = "--file",
+            description = "Write all the collapsed stacks to the given file (flame graph input)",
+            required = false)
+    private File file;
+
+    private final StackSampler m_sampler;
+
+    public QueueSamplerAction(final @Requires StackSampler m_sampler) {
+        this.m_sampler = m_sampler;
+    }
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        PrintStream out = Consoles.of(session);
+        if ("start".equals(action)) {
+            m_sampler.start(threshold, interval);
+            out.print(Ansi.ansi().render("Sampling jobs running for more than @|bold %d|@ ms, every %d ms%n",
+                                         m_sampler.getThreshold(),
+                                         m_sampler.getInterval()));
+        } else if ("stop".equals(action)) {
+            m_sampler.stop();
+            out.print(Ansi.ansi().render("Sampling stopped (%d samples kept)%n", m_sampler.getSamples()));
+        } else if ("clear".equals(action)) {
+            m_sampler.clear();
+            out.print(Ansi.ansi().render("Samples cleared").newline());
+        } else if ("show".equals(action)) {
+            show(out);
+        } else {
+            out.print(Ansi.ansi().render("@|bold,red Unknown action '%s' (start, stop, show or clear expected)|@%n", action));
+        }
+        out.flush();
+        return null;
+    }
+
+    private void show(final PrintStream out) throws Exception {
+        List<Map.Entry<String, Long>> stacks = m_sampler.getStacks();
+        long samples = m_sampler.getSamples();
+
+        out.print(Ansi.ansi().render("Sampler is @|bold %s|@, %d samples in %d distinct stacks%n",
+                                     m_sampler.isStarted() ? "running" : "stopped",
+                                     samples,
+                                     stacks.size()));
+        if (m_sampler.getFailures() > 0) {
+            out.print(Ansi.ansi().render("@|yellow %d sampling ticks failed|@%n", m_sampler.getFailures()));
+        }
+
+        for (Map.Entry<String, Long> stack : stacks.subList(0, Math.min(limit, stacks.size()))) {
+            String[] frames = stack.getKey().split(";");
+            Ansi buffer = Ansi.ansi();
+            buffer.render("@|bold %5.1f%%|@ (%d) [@|bold %s|@]%n",
+                          (stack.getValue() * 100.0) / Math.max(1, samples),
+                          stack.getValue(),
+                          frames[0]);
+            // Innermost frames first, as in a stack trace
+            for (int i = frames.length - 1; (i > 0) && (i >= frames.length - depth); i--) {
+                buffer.render("    at %s%n", frames[i]);
+            }
+            out.print(buffer);
+        }
+
+        if (file != null) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                                                                      Charset.forName("UTF-8")));
+            try {
+                for (Map.Entry<String, Long> stack : stacks) {
+                    writer.write(stack.getKey());
+                    writer.write(' ');
+                    writer.write(Long.toString(stack.getValue()));
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            out.print(Ansi.ansi().render("Collapsed stacks written to @|bold %s|@%n", file.getAbsolutePath()));
+        }
+    }
+
+}
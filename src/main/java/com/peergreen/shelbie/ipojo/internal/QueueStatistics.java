@@ -0,0 +1,70 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+
+/**
+ * Aggregated statistics of the jobs finished since {@link #getSince()}.
+ */
+class QueueStatistics extends EmptyQueueListener {
+
+    private final long since;
+    final AccumulatedDurationListener accumulated = new AccumulatedDurationListener();
+    final PerJobTypeAccumulator partitioned;
+    final WorstJobsFinder worstJobsFinder;
+    volatile boolean truncated = false;
+
+    /**
+     * Only one job out of {@code sampling} was accounted.
+     */
+    volatile int sampling = 1;
+
+    public QueueStatistics(final long since, final int worsts, final int worstsPerType) {
+        this(since, worsts, new PerJobTypeAccumulator(worstsPerType));
+    }
+
+    public QueueStatistics(final long since, final int worsts, final PerJobTypeAccumulator partitioned) {
+        this.since = since;
+        this.partitioned = partitioned;
+        this.worstJobsFinder = new WorstJobsFinder(worsts);
+    }
+
+    public static QueueStatistics of(final long since,
+                                     final int worsts,
+                                     final int worstsPerType,
+                                     final Iterable<? extends JobInfo> jobs) {
+        return of(since, worsts, new PerJobTypeAccumulator(worstsPerType), jobs);
+    }
+
+    public static QueueStatistics of(final long since,
+                                     final int worsts,
+                                     final PerJobTypeAccumulator partitioned,
+                                     final Iterable<? extends JobInfo> jobs) {
+        QueueStatistics statistics = new QueueStatistics(since, worsts, partitioned);
+        for (JobInfo job : jobs) {
+            statistics.ended(job);
+        }
+        return statistics;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    @Override
+    protected void ended(final JobInfo info) {
+        accumulated.ended(info);
+        partitioned.ended(info);
+        worstJobsFinder.ended(info);
+    }
+}
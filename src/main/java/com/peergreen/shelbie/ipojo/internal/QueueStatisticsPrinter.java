@@ -0,0 +1,251 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.fusesource.jansi.Ansi;
+
+/**
+ * Renders {@link QueueStatistics} (totals, per job type partitions and worst jobs).
+ */
+class QueueStatisticsPrinter {
+
+    /**
+     * Columns of the statistics records (json and csv formats): the totals come first, with a {@literal null}
+     * partition (json {@literal null}, empty csv value), then one record per partition.
+     * Durations are in ms, counts and totals of sampled statistics are extrapolated.
+     */
+    static final String[] STATISTICS_COLUMNS = {"partition", "grouping", "since", "sampling", "truncated", "count",
+            "executionTotal", "executionMin", "executionMean", "executionP50", "executionP90", "executionP99",
+            "executionP999", "executionMax", "waitingTotal", "waitingMin", "waitingMean", "waitingP50", "waitingP90",
+            "waitingP99", "waitingP999", "waitingMax"};
+
+    private final int worsts;
+    private final int worstsPerType;
+
+    QueueStatisticsPrinter(final int worsts, final int worstsPerType) {
+        this.worsts = worsts;
+        this.worstsPerType = worstsPerType;
+    }
+
+    public void print(final PrintStream out, final QueueStatistics statistics) {
+        AccumulatedDurationListener accumulated = statistics.accumulated;
+        // Counts and totals of sampled statistics are extrapolated
+        int sampling = statistics.sampling;
+
+        // Each section (and each partition) is flushed as soon as it is rendered
+        Ansi buffer = Ansi.ansi();
+
+        // Prints totals
+        buffer.render("Executed @|bold %6d|@ jobs (percentiles within %.1f%%)%n",
+                      accumulated.execution.getCount() * sampling,
+                      LatencyHistogram.RELATIVE_ERROR * 100);
+        if (sampling > 1) {
+            buffer.render("@|yellow Sampled 1/%d: counts and totals are extrapolated from %d jobs|@%n",
+                          sampling,
+                          accumulated.execution.getCount());
+        }
+        printDurations(buffer, "Total execution: ", accumulated.execution, sampling);
+        printDurations(buffer, "Total waiting  : ", accumulated.waiting, sampling);
+
+        buffer.newline();
+
+        printBanner(buffer, format("Per %s partitions", statistics.partitioned.grouping.getName()));
+        out.print(buffer);
+
+        // Prints per-jobtype
+        for (PerJobInfos partition : statistics.partitioned.partitions.values()) {
+            buffer = Ansi.ansi();
+            buffer.render("@|bold %s|@ / %d jobs%n", partition.key, partition.execution.getCount() * sampling);
+            printDurations(buffer, "  Total execution: ", partition.execution, sampling);
+            printDurations(buffer, "  Total waiting  : ", partition.waiting, sampling);
+            if (worstsPerType > 0) {
+                printWorsts(buffer, partition.worstJobsFinder.getWorsts(), worstsPerType, "  ");
+            }
+            out.print(buffer);
+        }
+
+        buffer = Ansi.ansi();
+        buffer.newline();
+
+        List<JobInfo> jobs = statistics.worstJobsFinder.getWorsts();
+        printBanner(buffer, format("%d worst jobs (most time consumers)", Math.min(worsts, jobs.size())));
+        printWorsts(buffer, jobs, worsts, "");
+        out.print(buffer);
+    }
+
+    /**
+     * Stream the totals (with a {@literal null} partition, it cannot clash with a partition key) and each
+     * partition as records, worst jobs are not reported.
+     */
+    static void write(final RecordWriter records, final QueueStatistics statistics) throws IOException {
+        AccumulatedDurationListener accumulated = statistics.accumulated;
+        writeRecord(records, statistics, null, accumulated.execution, accumulated.waiting);
+        for (PerJobInfos partition : statistics.partitioned.partitions.values()) {
+            writeRecord(records, statistics, partition.key, partition.execution, partition.waiting);
+        }
+        records.flush();
+    }
+
+    private static void writeRecord(final RecordWriter records,
+                                    final QueueStatistics statistics,
+                                    final String partition,
+                                    final LatencyHistogram execution,
+                                    final LatencyHistogram waiting) throws IOException {
+        int sampling = statistics.sampling;
+        records.beginRecord()
+               .value(partition)
+               .value(statistics.partitioned.grouping.getName())
+               .value(statistics.getSince())
+               .value(sampling)
+               .value(statistics.truncated)
+               .value(execution.getCount() * sampling);
+        writeDurations(records, execution, sampling);
+        writeDurations(records, waiting, sampling);
+        records.endRecord();
+    }
+
+    private static void writeDurations(final RecordWriter records,
+                                       final LatencyHistogram histogram,
+                                       final int sampling) throws IOException {
+        records.value(histogram.getTotal() * sampling)
+               .value(histogram.getMin())
+               .value(histogram.getMean())
+               .value(histogram.getValueAtPercentile(50))
+               .value(histogram.getValueAtPercentile(90))
+               .value(histogram.getValueAtPercentile(99))
+               .value(histogram.getValueAtPercentile(99.9))
+               .value(histogram.getMax());
+    }
+
+    private void printWorsts(final Ansi buffer, final List<JobInfo> jobs, final int limit, final String indent) {
+        int index = 0;
+        for (JobInfo info : jobs.subList(0, Math.min(limit, jobs.size()))) {
+            buffer.render("%s%3d [@|bold %s|@] %s%n", indent, index++, info.getJobType(), info.getDescription());
+            buffer.render("%s    Executed in @|bold,red %d|@ ms%n", indent, info.getExecutionDuration());
+            buffer.render("%s    Enlisted at %2$tT %2$tL ms%n", indent, info.getEnlistmentTime());
+            buffer.render("%s    Waited  for %d ms%n", indent, info.getWaitDuration());
+        }
+    }
+
+    private void printDurations(final Ansi buffer,
+                                final String title,
+                                final LatencyHistogram histogram,
+                                final int sampling) {
+        buffer.render("%s@|bold %6d|@ ms (min:%4d, avg:%4d, p50:%4d, p90:%4d, p99:%4d, p99.9:%4d, max:%4d)%n",
+                      title,
+                      histogram.getTotal() * sampling,
+                      histogram.getMin(),
+                      histogram.getMean(),
+                      histogram.getValueAtPercentile(50),
+                      histogram.getValueAtPercentile(90),
+                      histogram.getValueAtPercentile(99),
+                      histogram.getValueAtPercentile(99.9),
+                      histogram.getMax());
+    }
+
+    /**
+     * Print the partitions side by side, regressions beyond the threshold (relative, and at least {@code minimum} ms)
+     * of the total or p99 execution time are highlighted.
+     */
+    static void printComparison(final PrintStream out,
+                                final StatisticsSnapshot baseline,
+                                final StatisticsSnapshot current,
+                                final double threshold,
+                                final long minimum) {
+        Ansi buffer = Ansi.ansi();
+        buffer.render("@|bold %-40s | %15s | %25s | %21s|@%n",
+                      "Partition", "Jobs", "Total execution ms", "p99 execution ms");
+        out.print(buffer);
+
+        // Totals first, apart from the partitions
+        printComparison(out, "All jobs", baseline.getTotal(), current.getTotal(), threshold, minimum);
+        int regressions = 0;
+        Set<String> keys = new TreeSet<>(baseline.getPartitions().keySet());
+        keys.addAll(current.getPartitions().keySet());
+        for (String key : keys) {
+            if (printComparison(out,
+                                shorten(key),
+                                baseline.getPartitions().get(key),
+                                current.getPartitions().get(key),
+                                threshold,
+                                minimum)) {
+                regressions++;
+            }
+        }
+
+        out.print(Ansi.ansi().render("%n%d partitions regressed by more than %.0f%% (and %d ms)%n",
+                                     regressions, threshold * 100, minimum));
+    }
+
+    /**
+     * @return {@literal true} if the row regressed
+     */
+    private static boolean printComparison(final PrintStream out,
+                                           final String name,
+                                           final StatisticsSnapshot.Aggregates before,
+                                           final StatisticsSnapshot.Aggregates after,
+                                           final double threshold,
+                                           final long minimum) {
+        if (after == null) {
+            out.print(Ansi.ansi().render("%-40s | %6d -> %6s | (not in current statistics)%n",
+                                         name, before.count, "-"));
+            return false;
+        }
+        if (before == null) {
+            out.print(Ansi.ansi().render("@|yellow %-40s | %6s -> %6d | %9s -> %9d      | %7s -> %7d|@%n",
+                                         name, "-", after.count, "-", after.totalExecution,
+                                         "-", after.p99Execution));
+            return false;
+        }
+        boolean regressed = regressed(before.totalExecution, after.totalExecution, threshold, minimum)
+                || regressed(before.p99Execution, after.p99Execution, threshold, minimum);
+        String format = "%-40s | %6d -> %6d | %9d -> %9d %+5.0f%% | %7d -> %7d %+5.0f%%";
+        out.print(Ansi.ansi().render(regressed ? "@|bold,red " + format + "|@%n" : format + "%n",
+                                     name,
+                                     before.count, after.count,
+                                     before.totalExecution, after.totalExecution,
+                                     change(before.totalExecution, after.totalExecution),
+                                     before.p99Execution, after.p99Execution,
+                                     change(before.p99Execution, after.p99Execution)));
+        return regressed;
+    }
+
+    private static boolean regressed(final long before, final long after, final double threshold, final long minimum) {
+        return ((after - before) >= minimum) && (after > (before * (1 + threshold)));
+    }
+
+    private static double change(final long before, final long after) {
+        return (before == 0) ? 0 : ((after - before) * 100.0) / before;
+    }
+
+    private static String shorten(final String value) {
+        return (value.length() <= 40) ? value : "..." + value.substring(value.length() - 37);
+    }
+
+    static void printBanner(final Ansi buffer, final String title) {
+        buffer.render("@|bold ------------------------------------------------------|@");
+        buffer.newline();
+        buffer.render("@|bold  > %s|@%n", title);
+        buffer.render("@|bold ------------------------------------------------------|@");
+        buffer.newline();
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.COMPLETED;
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.ENLISTED;
+import static com.peergreen.shelbie.ipojo.internal.RateCounters.FAILED;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.gogo.commands.Option;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "queue-top",
+         scope = "ipojo",
+         description = "Continuously display iPOJO's processing queues activity (until interrupted or 'q' is typed)")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class QueueTopAction implements Action {
+
+    /**
+     * Minimum refresh interval (in ms).
+     */
+    static final long MIN_INTERVAL = 100;
+
+    private final QueueRegistry m_queues;
+
+    private final QueueEventRecorder m_recorder;
+
+    @Option(name = "-i",
+            aliases = "--interval",
+            description = "Refresh interval in ms (1000 by default, 100 at least)",
+            required = false)
+    private long interval = 1000;
+
+    @Option(name = "-n",
+            aliases = "--rows",
+            description = "Number of running jobs and waiters to display (10 by default)",
+            required = false)
+    private int rows = 10;
+
+    @Option(name = "-c",
+            aliases = "--columns",
+            description = "Maximum line width (120 by default)",
+            required = false)
+    private int columns = 120;
+
+    /**
+     * Lines displayed by the previous frame.
+     */
+    private List<String> previous = Collections.emptyList();
+
+    public QueueTopAction(final @Requires QueueRegistry m_queues,
+                          final @Requires QueueEventRecorder m_recorder) {
+        this.m_queues = m_queues;
+        this.m_recorder = m_recorder;
+    }
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        if (interval < MIN_INTERVAL) {
+            throw new IllegalArgumentException("--interval must be at least " + MIN_INTERVAL + " ms");
+        }
+
+        PrintStream out = Consoles.of(session);
+        InputStream keyboard = session.getKeyboard();
+        previous = Collections.emptyList();
+
+        out.print(Ansi.ansi().eraseScreen());
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                redraw(out, frame());
+                if (quitRequested(keyboard)) {
+                    break;
+                }
+                Thread.sleep(interval);
+            }
+        } catch (InterruptedException e) {
+            // Expected way to stop
+        } finally {
+            out.print(Ansi.ansi().cursor(previous.size() + 1, 1));
+            out.flush();
+        }
+        return null;
+    }
+
+    private boolean quitRequested(final InputStream keyboard) throws Exception {
+        while ((keyboard != null) && (keyboard.available() > 0)) {
+            int c = keyboard.read();
+            if ((c == 'q') || (c == 'Q') || (c == -1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> frame() {
+        List<String> lines = new ArrayList<>();
+
+        List<BoundQueue> queues = m_queues.getQueues();
+        lines.add(line("@|bold iPOJO queues|@ %1$tT (refresh every %2$d ms, 'q' to quit)", new Date(), interval));
+        long executing = 0;
+        long waiting = 0;
+        long finished = 0;
+        for (BoundQueue queue : queues) {
+            executing += queue.getService().getCurrents();
+            waiting += queue.getService().getWaiters();
+            finished += queue.getService().getFinished();
+        }
+        lines.add(line("Executing: @|bold %6d|@ | Waiting: @|bold %6d|@ | Finished: @|bold %6d|@ (%d queues)",
+                       executing,
+                       waiting,
+                       finished,
+                       queues.size()));
+        RateCounters.Rates rates = m_recorder.getRates().getRates(10);
+        lines.add(line("Last 10s : %.1f enlisted/s, %.1f completed/s, %.1f failed/s, avg wait %d ms, avg exec %d ms",
+                       rates.perSecond(ENLISTED),
+                       rates.perSecond(COMPLETED),
+                       rates.perSecond(FAILED),
+                       rates.getAverageWait(),
+                       rates.getAverageExecution()));
+        lines.add("");
+
+        List<RunningJob> running = m_recorder.getRunningJobs();
+        lines.add(line("@|bold Running jobs (%d)|@", running.size()));
+        for (RunningJob job : running.subList(0, Math.min(rows, running.size()))) {
+            lines.add(line("%8d ms [@|bold %s|@] %s",
+                           job.getRunningDuration(),
+                           job.getJobType(),
+                           shorten(job.getJobType(), job.getDescription())));
+        }
+        lines.add("");
+
+        // Only the visible waiters are kept, oldest of all the queues first
+        WaiterAnalysis waiters = new WaiterAnalysis(System.currentTimeMillis(), rows, null, 0);
+        for (BoundQueue queue : queues) {
+            for (JobInfo info : queue.getService().getWaitersInfo()) {
+                waiters.add(info);
+            }
+        }
+        lines.add(line("@|bold Oldest waiters (%d)|@", waiters.getCount()));
+        for (JobInfo info : waiters.getOldest()) {
+            lines.add(line("%8d ms [@|bold %s|@] %s",
+                           waiters.waitOf(info),
+                           info.getJobType(),
+                           shorten(info.getJobType(), info.getDescription())));
+        }
+
+        return lines;
+    }
+
+    private static String line(final String format, final Object... arguments) {
+        return Ansi.ansi().render(format, arguments).toString();
+    }
+
+    /**
+     * Avoid wrapping, that would shift the following rows. Job type and description may be {@literal null}.
+     */
+    private String shorten(final String type, final String description) {
+        // Room left by the duration and type columns
+        int room = Math.max(10, columns - 16 - String.valueOf(type).length());
+        String shown = String.valueOf(description);
+        if (shown.length() > room) {
+            return shown.substring(0, room - 3) + "...";
+        }
+        return shown;
+    }
+
+    private void redraw(final PrintStream out, final List<String> lines) {
+        Ansi buffer = Ansi.ansi();
+        int count = Math.max(lines.size(), previous.size());
+        for (int i = 0; i < count; i++) {
+            String line = (i < lines.size()) ? lines.get(i) : "";
+            String old = (i < previous.size()) ? previous.get(i) : null;
+            if (!line.equals(old)) {
+                buffer.cursor(i + 1, 1).eraseLine().a(line);
+            }
+        }
+        out.print(buffer);
+        out.flush();
+        previous = lines;
+    }
+
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static java.lang.String.format;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.ipojo.extender.queue.debug.QueueEventProxy;
+import org.osgi.service.log.LogService;
+
+/**
+ * Evaluates queue service level rules every second and logs breaches (with the offending jobs):
+ * <ul>
+ *     <li>more than (100 - {@code wait.percentile})% of the jobs started during the last {@code wait.window}
+ *     seconds waited more than {@code wait.threshold} ms (i.e. the wait percentile is above the threshold),</li>
+ *     <li>more than {@code waiters.threshold} jobs are waiting (all queues),</li>
+ *     <li>a job has been running for more than {@code running.threshold} ms.</li>
+ * </ul>
+ * A negative threshold disables its rule.
+ * Evaluation is incremental: the wait rule only counts, per second, started jobs and jobs over the threshold.
+ */
+@Component
+@Provides(specifications = QueueWatchdog.class)
+public class QueueWatchdog {
+
+    public static final String WAIT_RULE = "wait";
+    public static final String WAITERS_RULE = "waiters";
+    public static final String RUNNING_RULE = "running";
+
+    /**
+     * Number of finished breaches kept.
+     */
+    public static final int HISTORY = 100;
+
+    /**
+     * Number of offending jobs kept per breach.
+     */
+    public static final int SNAPSHOT_SIZE = 5;
+
+    private static final long PERIOD = 1000;
+
+    @Property(name = "wait.percentile", value = "99")
+    private double waitPercentile;
+
+    @Property(name = "wait.threshold", value = "500")
+    private long waitThreshold;
+
+    @Property(name = "wait.window", value = "30")
+    private int waitWindow;
+
+    @Property(name = "waiters.threshold", value = "1000")
+    private long waitersThreshold;
+
+    @Property(name = "running.threshold", value = "10000")
+    private long runningThreshold;
+
+    @Requires(optional = true)
+    private LogService m_logger;
+
+    private final QueueEventProxy m_eventProxy;
+    private final QueueEventRecorder m_recorder;
+    private final QueueRegistry m_queues;
+
+    private final WaitListener listener = new WaitListener();
+
+    /**
+     * Accessed by the evaluation thread, and by commands under the watchdog lock.
+     */
+    private final Map<String, QueueAlert> active = new LinkedHashMap<>();
+    private final Deque<QueueAlert> history = new ArrayDeque<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Per second counts of started jobs and of jobs that waited more than the threshold,
+     * the slot at {@link #current} is the one being filled.
+     */
+    private volatile AtomicLongArray started;
+    private volatile AtomicLongArray late;
+    private volatile int current = 0;
+
+    public QueueWatchdog(final @Requires QueueEventProxy m_eventProxy,
+                         final @Requires QueueEventRecorder m_recorder,
+                         final @Requires QueueRegistry m_queues) {
+        this.m_eventProxy = m_eventProxy;
+        this.m_recorder = m_recorder;
+        this.m_queues = m_queues;
+    }
+
+    @Validate
+    public synchronized void start() {
+        started = new AtomicLongArray(Math.max(1, waitWindow));
+        late = new AtomicLongArray(Math.max(1, waitWindow));
+        m_eventProxy.addQueueListener(listener);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "iPOJO queue watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                // An exception would cancel the periodic task
+                try {
+                    evaluate();
+                } catch (RuntimeException e) {
+                    m_logger.log(LogService.LOG_ERROR, "iPOJO queue watchdog evaluation failed", e);
+                }
+            }
+        }, PERIOD, PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    @Invalidate
+    public synchronized void stop() {
+        m_eventProxy.removeQueueListener(listener);
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return rules description, by rule name
+     */
+    public Map<String, String> getRules() {
+        Map<String, String> rules = new LinkedHashMap<>();
+        rules.put(WAIT_RULE, (waitThreshold < 0) ? "disabled"
+                : format("p%s wait > %d ms over %d s", percentile(), waitThreshold, waitWindow));
+        rules.put(WAITERS_RULE, (waitersThreshold < 0) ? "disabled" : format("waiters > %d", waitersThreshold));
+        rules.put(RUNNING_RULE, (runningThreshold < 0) ? "disabled" : format("job running > %d ms", runningThreshold));
+        return rules;
+    }
+
+    /**
+     * @return the wait percentile, without decimals when it has none (99 rather than 99.0)
+     */
+    private String percentile() {
+        if (waitPercentile == Math.rint(waitPercentile)) {
+            return Long.toString((long) waitPercentile);
+        }
+        return Double.toString(waitPercentile);
+    }
+
+    public synchronized List<QueueAlert> getActiveAlerts() {
+        return new ArrayList<>(active.values());
+    }
+
+    /**
+     * @return finished breaches, most recent first
+     */
+    public synchronized List<QueueAlert> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    public synchronized void clearHistory() {
+        history.clear();
+    }
+
+    synchronized void evaluate() {
+        long now = System.currentTimeMillis();
+
+        if (waitThreshold >= 0) {
+            long total = 0;
+            long over = 0;
+            for (int i = 0; i < started.length(); i++) {
+                total += started.get(i);
+                over += late.get(i);
+            }
+            // Move to the next slot, the oldest second leaves the window
+            int next = (current + 1) % started.length();
+            started.set(next, 0);
+            late.set(next, 0);
+            current = next;
+
+            double ratio = (total == 0) ? 0 : (over * 100.0) / total;
+            check(WAIT_RULE, ratio > (100 - waitPercentile), ratio, now);
+        }
+
+        if (waitersThreshold >= 0) {
+            long waiters = m_queues.getWaiters();
+            check(WAITERS_RULE, waiters > waitersThreshold, waiters, now);
+        }
+
+        if (runningThreshold >= 0) {
+            List<RunningJob> running = m_recorder.getRunningJobs();
+            long longest = running.isEmpty() ? 0 : running.get(0).getRunningDuration();
+            check(RUNNING_RULE, longest > runningThreshold, longest, now);
+        }
+    }
+
+    private void check(final String rule, final boolean breached, final double value, final long now) {
+        QueueAlert alert = active.get(rule);
+        if (breached && (alert == null)) {
+            alert = new QueueAlert(rule, now, value, snapshot(rule));
+            active.put(rule, alert);
+            log(LogService.LOG_WARNING, breachMessage(alert));
+        } else if (breached) {
+            alert.update(value);
+        } else if (alert != null) {
+            alert.end(now);
+            active.remove(rule);
+            history.addFirst(alert);
+            if (history.size() > HISTORY) {
+                history.removeLast();
+            }
+            log(LogService.LOG_INFO, format("iPOJO queue rule '%s' (%s) back to normal after %d ms",
+                                            rule, getRules().get(rule), now - alert.getStartTime()));
+        }
+    }
+
+    private List<String> snapshot(final String rule) {
+        List<String> jobs = new ArrayList<>();
+        if (RUNNING_RULE.equals(rule)) {
+            for (RunningJob job : m_recorder.getRunningJobs()) {
+                if ((jobs.size() == SNAPSHOT_SIZE) || (job.getRunningDuration() <= runningThreshold)) {
+                    break;
+                }
+                jobs.add(format("running for %d ms on %s [%s] %s",
+                                job.getRunningDuration(),
+                                job.getThread().getName(),
+                                job.getJobType(),
+                                job.getDescription()));
+            }
+            return jobs;
+        }
+        // Waiting rules: oldest waiters, selected in a single pass
+        for (BoundQueue queue : m_queues.getQueues()) {
+            WaiterAnalysis analysis = new WaiterAnalysis(System.currentTimeMillis(), SNAPSHOT_SIZE, null, 0);
+            for (JobInfo info : queue.getService().getWaitersInfo()) {
+                analysis.add(info);
+            }
+            for (JobInfo info : analysis.getOldest()) {
+                jobs.add(format("waiting for %d ms [%s] %s",
+                                analysis.waitOf(info),
+                                info.getJobType(),
+                                info.getDescription()));
+            }
+        }
+        return jobs;
+    }
+
+    private String breachMessage(final QueueAlert alert) {
+        StringBuilder message = new StringBuilder();
+        message.append(format("iPOJO queue rule '%s' (%s) breached, measured %.1f",
+                              alert.getRule(),
+                              getRules().get(alert.getRule()),
+                              alert.getPeak()));
+        if (WAIT_RULE.equals(alert.getRule())) {
+            message.append("% of jobs over the threshold");
+        }
+        for (String job : alert.getSnapshot()) {
+            message.append(System.getProperty("line.separator")).append("  ").append(job);
+        }
+        return message.toString();
+    }
+
+    private void log(final int level, final String message) {
+        // Nullable object when no LogService is registered (the package itself is a mandatory import)
+        m_logger.log(level, message);
+    }
+
+    private class WaitListener extends EmptyQueueListener {
+        @Override
+        public void started(final JobInfo info) {
+            int slot = current;
+            started.incrementAndGet(slot);
+            if (info.getWaitDuration() > waitThreshold) {
+                late.incrementAndGet(slot);
+            }
+        }
+    }
+}
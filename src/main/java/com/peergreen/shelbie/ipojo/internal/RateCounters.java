@@ -0,0 +1,167 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Queue event counters able to report rates over sliding windows (up to {@value #HISTORY} seconds).
+ * <p>
+ * Counters are cumulative and striped. The first event of each second copies the cumulative values
+ * into a ring slot dedicated to that second. A rate over a window is then the difference between the
+ * current values and the oldest copy inside the window. Seconds without any slot had no event.
+ * Updates are O(1) and allocation-free.
+ */
+class RateCounters {
+
+    /**
+     * Number of seconds kept in the ring (5 min).
+     */
+    static final int HISTORY = 300;
+
+    static final int ENLISTED = 0;
+    static final int STARTED = 1;
+    static final int COMPLETED = 2;
+    static final int FAILED = 3;
+    static final int WAITING = 4;
+    static final int EXECUTION = 5;
+    private static final int METRICS = 6;
+
+    // One more slot than the history, so that the slot of the window's first second is never overwritten
+    private static final int SLOTS = HISTORY + 1;
+
+    private final StripedCounter[] counters = new StripedCounter[METRICS];
+    private final AtomicLongArray seconds = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray values = new AtomicLongArray(SLOTS * METRICS);
+    private final AtomicLong current = new AtomicLong(-1);
+    private final long creation;
+
+    public RateCounters() {
+        for (int i = 0; i < METRICS; i++) {
+            counters[i] = new StripedCounter();
+        }
+        for (int i = 0; i < SLOTS; i++) {
+            seconds.set(i, -1);
+        }
+        creation = System.currentTimeMillis();
+    }
+
+    public void enlisted() {
+        tick();
+        counters[ENLISTED].increment();
+    }
+
+    public void started(final long waitDuration) {
+        tick();
+        counters[STARTED].increment();
+        counters[WAITING].add(waitDuration);
+    }
+
+    public void executed(final long executionDuration) {
+        tick();
+        counters[COMPLETED].increment();
+        counters[EXECUTION].add(executionDuration);
+    }
+
+    public void failed(final long executionDuration) {
+        tick();
+        counters[FAILED].increment();
+        counters[EXECUTION].add(executionDuration);
+    }
+
+    private void tick() {
+        long second = System.currentTimeMillis() / 1000;
+        long last = current.get();
+        if ((second > last) && current.compareAndSet(last, second)) {
+            int slot = (int) (second % SLOTS);
+            // Invalidate the slot while it is rewritten
+            seconds.set(slot, -1);
+            for (int i = 0; i < METRICS; i++) {
+                values.set((slot * METRICS) + i, counters[i].sum());
+            }
+            seconds.set(slot, second);
+        }
+    }
+
+    /**
+     * @param window window duration in seconds (at most {@value #HISTORY})
+     * @return counters variation over the given window, ending now
+     */
+    public Rates getRates(final int window) {
+        long now = System.currentTimeMillis();
+        long first = (now / 1000) - Math.min(window, HISTORY);
+        long start = Math.max(first * 1000, creation);
+
+        long[] deltas = new long[METRICS];
+        for (int i = 0; i < METRICS; i++) {
+            deltas[i] = counters[i].sum();
+        }
+
+        long[] copy = new long[METRICS];
+        for (long second = first; second <= now / 1000; second++) {
+            int slot = (int) (second % SLOTS);
+            if (seconds.get(slot) == second) {
+                for (int i = 0; i < METRICS; i++) {
+                    copy[i] = values.get((slot * METRICS) + i);
+                }
+                // Slot may have been rewritten while it was copied
+                if (seconds.get(slot) == second) {
+                    for (int i = 0; i < METRICS; i++) {
+                        deltas[i] -= copy[i];
+                    }
+                    return new Rates(deltas, now - start);
+                }
+            }
+        }
+
+        // No event at all during the window
+        return new Rates(new long[METRICS], now - start);
+    }
+
+    static class Rates {
+        private final long[] deltas;
+        private final long duration;
+
+        Rates(final long[] deltas, final long duration) {
+            this.deltas = deltas;
+            this.duration = Math.max(1, duration);
+        }
+
+        /**
+         * @return count of the given metric during the window
+         */
+        public long count(final int metric) {
+            return deltas[metric];
+        }
+
+        /**
+         * @return per second rate of the given metric during the window
+         */
+        public double perSecond(final int metric) {
+            return (deltas[metric] * 1000.0) / duration;
+        }
+
+        public long getAverageWait() {
+            return (deltas[STARTED] == 0) ? 0 : (deltas[WAITING] / deltas[STARTED]);
+        }
+
+        public long getAverageExecution() {
+            long ended = deltas[COMPLETED] + deltas[FAILED];
+            return (ended == 0) ? 0 : (deltas[EXECUTION] / ended);
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams flat records of a fixed schema, one per line: JSON objects (JSON Lines) or CSV rows after a header line.
+ * Values are given in column order and written at once, records are never held in memory.
+ */
+abstract class RecordWriter implements Flushable {
+
+    protected final Writer out;
+    protected final String[] columns;
+
+    /**
+     * Index of the next value in the current record, -1 between records.
+     */
+    private int column = -1;
+
+    protected RecordWriter(final Writer out, final String[] columns) {
+        this.out = out;
+        this.columns = columns;
+    }
+
+    /**
+     * @return a writer of records with the given columns, the CSV header is written at once
+     */
+    static RecordWriter of(final OutputFormat format, final Writer out, final String... columns) throws IOException {
+        switch (format) {
+            case JSON:
+                return new JsonRecordWriter(out, columns);
+            case CSV:
+                return new CsvRecordWriter(out, columns);
+            default:
+                throw new IllegalArgumentException("No record writer for " + format);
+        }
+    }
+
+    public RecordWriter beginRecord() throws IOException {
+        if (column >= 0) {
+            throw new IllegalStateException("Previous record is not ended");
+        }
+        column = 0;
+        begin();
+        return this;
+    }
+
+    public RecordWriter endRecord() throws IOException {
+        if (column != columns.length) {
+            throw new IllegalStateException("Record has " + Math.max(column, 0) + " values, "
+                                            + columns.length + " expected");
+        }
+        end();
+        out.write('\n');
+        column = -1;
+        return this;
+    }
+
+    public RecordWriter value(final String value) throws IOException {
+        string(next(), value);
+        return this;
+    }
+
+    public RecordWriter value(final long value) throws IOException {
+        number(next(), value);
+        return this;
+    }
+
+    public RecordWriter value(final double value) throws IOException {
+        number(next(), value);
+        return this;
+    }
+
+    public RecordWriter value(final boolean value) throws IOException {
+        bool(next(), value);
+        return this;
+    }
+
+    public RecordWriter nullValue() throws IOException {
+        string(next(), null);
+        return this;
+    }
+
+    /**
+     * Fill the remaining columns of the current record with {@literal null}.
+     */
+    public RecordWriter nullValues() throws IOException {
+        while ((column >= 0) && (column < columns.length)) {
+            nullValue();
+        }
+        return this;
+    }
+
+    private int next() {
+        if ((column < 0) || (column == columns.length)) {
+            throw new IllegalStateException("No more column expected");
+        }
+        return column++;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    protected abstract void begin() throws IOException;
+
+    protected abstract void end() throws IOException;
+
+    protected abstract void string(int index, String value) throws IOException;
+
+    protected abstract void number(int index, long value) throws IOException;
+
+    protected abstract void number(int index, double value) throws IOException;
+
+    protected abstract void bool(int index, boolean value) throws IOException;
+
+    /**
+     * One JSON object per record, named after the columns.
+     */
+    private static class JsonRecordWriter extends RecordWriter {
+
+        private final JsonWriter json;
+
+        JsonRecordWriter(final Writer out, final String[] columns) {
+            super(out, columns);
+            this.json = new JsonWriter(out);
+        }
+
+        @Override
+        protected void begin() throws IOException {
+            json.beginObject();
+        }
+
+        @Override
+        protected void end() throws IOException {
+            json.endObject();
+        }
+
+        @Override
+        protected void string(final int index, final String value) throws IOException {
+            json.field(columns[index], value);
+        }
+
+        @Override
+        protected void number(final int index, final long value) throws IOException {
+            json.field(columns[index], value);
+        }
+
+        @Override
+        protected void number(final int index, final double value) throws IOException {
+            json.field(columns[index], value);
+        }
+
+        @Override
+        protected void bool(final int index, final boolean value) throws IOException {
+            json.field(columns[index], value);
+        }
+    }
+
+    /**
+     * RFC 4180 values (quoted only when needed), {@literal null} is written as an empty value.
+     */
+    private static class CsvRecordWriter extends RecordWriter {
+
+        CsvRecordWriter(final Writer out, final String[] columns) throws IOException {
+            super(out, columns);
+            for (int i = 0; i < columns.length; i++) {
+                string(i, columns[i]);
+            }
+            out.write('\n');
+        }
+
+        @Override
+        protected void begin() {
+        }
+
+        @Override
+        protected void end() {
+        }
+
+        @Override
+        protected void string(final int index, final String value) throws IOException {
+            separate(index);
+            if (value == null) {
+                return;
+            }
+            int length = value.length();
+            boolean quoted = false;
+            for (int i = 0; (i < length) && !quoted; i++) {
+                char c = value.charAt(i);
+                quoted = (c == ',') || (c == '"') || (c == '\n') || (c == '\r');
+            }
+            if (!quoted) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) == '"') {
+                    // Quotes are doubled
+                    out.write(value, start, i + 1 - start);
+                    start = i;
+                }
+            }
+            out.write(value, start, length - start);
+            out.write('"');
+        }
+
+        @Override
+        protected void number(final int index, final long value) throws IOException {
+            separate(index);
+            out.write(Long.toString(value));
+        }
+
+        @Override
+        protected void number(final int index, final double value) throws IOException {
+            separate(index);
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                out.write(Double.toString(value));
+            }
+        }
+
+        @Override
+        protected void bool(final int index, final boolean value) throws IOException {
+            separate(index);
+            out.write(value ? "true" : "false");
+        }
+
+        private void separate(final int index) throws IOException {
+            if (index > 0) {
+                out.write(',');
+            }
+        }
+    }
+}
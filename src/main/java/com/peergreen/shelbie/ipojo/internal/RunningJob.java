@@ -0,0 +1,85 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.Comparator;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+
+/**
+ * A job currently executed by a queue worker.
+ */
+final class RunningJob {
+
+    static final Comparator<RunningJob> OLDEST_FIRST = new Comparator<RunningJob>() {
+        @Override
+        public int compare(final RunningJob first, final RunningJob second) {
+            return Long.compare(first.startTime, second.startTime);
+        }
+    };
+
+    private final String jobType;
+    private final String description;
+    private final long startTime;
+    private final Thread thread;
+    private final ThreadUsage usage;
+    private volatile boolean ended = false;
+
+    RunningJob(final JobInfo info, final Thread thread, final ThreadUsage usage) {
+        this.jobType = info.getJobType();
+        this.description = info.getDescription();
+        this.startTime = System.currentTimeMillis();
+        this.thread = thread;
+        this.usage = usage;
+    }
+
+    public String getJobType() {
+        return jobType;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getRunningDuration() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * @return the worker executing the job
+     */
+    public Thread getThread() {
+        return thread;
+    }
+
+    /**
+     * @return worker's thread usage when the job started, {@literal null} if it was not measured
+     */
+    ThreadUsage getStartUsage() {
+        return usage;
+    }
+
+    /**
+     * @return {@literal true} once the job is finished (its worker may then run another job)
+     */
+    public boolean isEnded() {
+        return ended;
+    }
+
+    void end() {
+        ended = true;
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Requires;
+
+/**
+ * Samples the stack of the workers executing a job for longer than a threshold, and aggregates the samples
+ * as collapsed stacks ({@code type;outermost;...;innermost count}, the flame graph input format).
+ * <p>
+ * Cost is bounded: at most {@value #MAX_THREADS_PER_TICK} threads are sampled per tick, ticks are at least
+ * {@value #MIN_INTERVAL} ms apart, stacks are cut to {@value #MAX_DEPTH} frames and at most
+ * {@value #MAX_STACKS} distinct stacks are kept (others are counted in a per type overflow stack).
+ * Sampling is disabled until {@link #start(long, long)} is called.
+ */
+@Component
+@Provides(specifications = StackSampler.class)
+public class StackSampler {
+
+    public static final long MIN_INTERVAL = 10;
+    public static final int MAX_THREADS_PER_TICK = 16;
+    public static final int MAX_DEPTH = 64;
+    public static final int MAX_STACKS = 2000;
+
+    static final String OVERFLOW = "[other stacks]";
+
+    private final QueueEventRecorder m_recorder;
+
+    private final ConcurrentMap<String, AtomicLong> stacks = new ConcurrentHashMap<>();
+
+    private final AtomicLong samples = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    private long threshold;
+
+    private long interval;
+
+    public StackSampler(final @Requires QueueEventRecorder m_recorder) {
+        this.m_recorder = m_recorder;
+    }
+
+    /**
+     * @param threshold execution time (in ms) after which a job is sampled
+     * @param interval sampling period (in ms)
+     */
+    public synchronized void start(final long threshold, final long interval) {
+        stop();
+        this.threshold = threshold;
+        this.interval = Math.max(MIN_INTERVAL, interval);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "iPOJO queue stack sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                // An exception would cancel the periodic task
+                try {
+                    sample();
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                }
+            }
+        }, this.interval, this.interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Invalidate
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public synchronized boolean isStarted() {
+        return scheduler != null;
+    }
+
+    public synchronized long getThreshold() {
+        return threshold;
+    }
+
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    public long getSamples() {
+        return samples.get();
+    }
+
+    /**
+     * @return number of ticks that failed (and were skipped)
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public void clear() {
+        stacks.clear();
+        samples.set(0);
+        failures.set(0);
+    }
+
+    private void sample() {
+        int sampled = 0;
+        // Oldest jobs first: they are the slowest ones
+        for (RunningJob job : m_recorder.getRunningJobs()) {
+            if ((sampled == MAX_THREADS_PER_TICK) || (job.getRunningDuration() < threshold)) {
+                return;
+            }
+            StackTraceElement[] trace = job.getThread().getStackTrace();
+            // The worker may have moved to another job in the meantime
+            if (!job.isEnded() && (trace.length != 0)) {
+                add(job.getJobType(), trace);
+                sampled++;
+            }
+        }
+    }
+
+    private void add(final String jobType, final StackTraceElement[] trace) {
+        // Jobs may have no type
+        String type = String.valueOf(jobType);
+        StringBuilder key = new StringBuilder(type);
+        for (int i = Math.min(trace.length, MAX_DEPTH) - 1; i >= 0; i--) {
+            key.append(';').append(trace[i].getClassName()).append('.').append(trace[i].getMethodName());
+        }
+        String stack = key.toString();
+        AtomicLong count = stacks.get(stack);
+        if (count == null) {
+            if (stacks.size() >= MAX_STACKS) {
+                stack = type + ";" + OVERFLOW;
+            }
+            stacks.putIfAbsent(stack, new AtomicLong());
+            count = stacks.get(stack);
+        }
+        count.incrementAndGet();
+        samples.incrementAndGet();
+    }
+
+    /**
+     * @return collapsed stacks (first element) and their number of samples (second element), most sampled first
+     */
+    public List<Map.Entry<String, Long>> getStacks() {
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>();
+        for (Map.Entry<String, AtomicLong> stack : stacks.entrySet()) {
+            sorted.add(new AbstractMap.SimpleImmutableEntry<>(stack.getKey(), stack.getValue().get()));
+        }
+        Collections.sort(sorted, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(final Map.Entry<String, Long> first, final Map.Entry<String, Long> second) {
+                return Long.compare(second.getValue(), first.getValue());
+            }
+        });
+        return sorted;
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates of a {@link QueueStatistics} (totals and percentiles, overall and per partition), small enough
+ * to be saved as a baseline whatever the number of jobs.
+ * <pre>
+ * int magic, int version, long since, long saved, UTF grouping, aggregates (total), int partitions,
+ * partitions x (UTF key, aggregates)
+ * aggregates: long count, long total execution, long p50, long p90, long p99, long max execution,
+ *             long total wait, long p99 wait
+ * </pre>
+ */
+final class StatisticsSnapshot {
+
+    static final int MAGIC = 0x49505153;
+    static final int VERSION = 1;
+
+    private final long since;
+    private final long saved;
+    private final String grouping;
+
+    /**
+     * Kept apart from the partitions: any string may be a partition key.
+     */
+    private final Aggregates total;
+    private final Map<String, Aggregates> partitions;
+
+    private StatisticsSnapshot(final long since,
+                               final long saved,
+                               final String grouping,
+                               final Aggregates total,
+                               final Map<String, Aggregates> partitions) {
+        this.since = since;
+        this.saved = saved;
+        this.grouping = grouping;
+        this.total = total;
+        this.partitions = partitions;
+    }
+
+    static StatisticsSnapshot of(final QueueStatistics statistics) {
+        Map<String, Aggregates> partitions = new TreeMap<>();
+        int sampling = statistics.sampling;
+        AccumulatedDurationListener accumulated = statistics.accumulated;
+        for (PerJobInfos infos : statistics.partitioned.partitions.values()) {
+            partitions.put(infos.key, new Aggregates(infos.execution, infos.waiting, sampling));
+        }
+        return new StatisticsSnapshot(statistics.getSince(),
+                                      System.currentTimeMillis(),
+                                      statistics.partitioned.grouping.getName(),
+                                      new Aggregates(accumulated.execution, accumulated.waiting, sampling),
+                                      partitions);
+    }
+
+    static StatisticsSnapshot read(final File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an iPOJO queue statistics snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            long since = in.readLong();
+            long saved = in.readLong();
+            String grouping = in.readUTF();
+            Aggregates total = Aggregates.read(in);
+            Map<String, Aggregates> partitions = new TreeMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                partitions.put(key, Aggregates.read(in));
+            }
+            return new StatisticsSnapshot(since, saved, grouping, total, partitions);
+        } finally {
+            in.close();
+        }
+    }
+
+    void write(final File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(since);
+            out.writeLong(saved);
+            out.writeUTF(grouping);
+            total.write(out);
+            out.writeInt(partitions.size());
+            for (Map.Entry<String, Aggregates> entry : partitions.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public long getSaved() {
+        return saved;
+    }
+
+    public String getGrouping() {
+        return grouping;
+    }
+
+    /**
+     * @return overall aggregates
+     */
+    public Aggregates getTotal() {
+        return total;
+    }
+
+    /**
+     * @return aggregates by partition key
+     */
+    public Map<String, Aggregates> getPartitions() {
+        return Collections.unmodifiableMap(partitions);
+    }
+
+    static final class Aggregates {
+        final long count;
+        final long totalExecution;
+        final long p50Execution;
+        final long p90Execution;
+        final long p99Execution;
+        final long maxExecution;
+        final long totalWait;
+        final long p99Wait;
+
+        /**
+         * @param sampling counts and totals are multiplied by the sampling rate
+         */
+        Aggregates(final LatencyHistogram execution, final LatencyHistogram waiting, final int sampling) {
+            this(execution.getCount() * sampling,
+                 execution.getTotal() * sampling,
+                 execution.getValueAtPercentile(50),
+                 execution.getValueAtPercentile(90),
+                 execution.getValueAtPercentile(99),
+                 execution.getMax(),
+                 waiting.getTotal() * sampling,
+                 waiting.getValueAtPercentile(99));
+        }
+
+        private Aggregates(final long count,
+                           final long totalExecution,
+                           final long p50Execution,
+                           final long p90Execution,
+                           final long p99Execution,
+                           final long maxExecution,
+                           final long totalWait,
+                           final long p99Wait) {
+            this.count = count;
+            this.totalExecution = totalExecution;
+            this.p50Execution = p50Execution;
+            this.p90Execution = p90Execution;
+            this.p99Execution = p99Execution;
+            this.maxExecution = maxExecution;
+            this.totalWait = totalWait;
+            this.p99Wait = p99Wait;
+        }
+
+        static Aggregates read(final DataInputStream in) throws IOException {
+            return new Aggregates(in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                                  in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        }
+
+        void write(final DataOutputStream out) throws IOException {
+            out.writeLong(count);
+            out.writeLong(totalExecution);
+            out.writeLong(p50Execution);
+            out.writeLong(p90Execution);
+            out.writeLong(p99Execution);
+            out.writeLong(maxExecution);
+            out.writeLong(totalWait);
+            out.writeLong(p99Wait);
+        }
+    }
+}
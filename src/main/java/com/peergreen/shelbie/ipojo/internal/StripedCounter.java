@@ -0,0 +1,64 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading its updates over padded cells, selected from the updating thread
+ * (in the spirit of Java 8's LongAdder). Cells are only summed when the value is read.
+ */
+class StripedCounter {
+
+    /**
+     * Cells are spaced by a cache line (8 longs) to avoid false sharing.
+     */
+    private static final int PADDING = 8;
+
+    private static final int STRIPES = stripes();
+
+    /**
+     * Approximate memory footprint (in bytes) of a counter.
+     */
+    static final int FOOTPRINT = (STRIPES * PADDING * 8) + 64;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void add(final long value) {
+        cells.getAndAdd(cell(), value);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int cell() {
+        long id = Thread.currentThread().getId();
+        // Spread sequential thread ids
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & (STRIPES - 1)) * PADDING;
+    }
+
+    private static int stripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(processors, 64)));
+        return (stripes < processors) ? stripes << 1 : stripes;
+    }
+}
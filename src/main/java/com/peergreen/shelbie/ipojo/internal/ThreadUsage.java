@@ -0,0 +1,105 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * CPU and contention counters of a thread, as reported by the {@link ThreadMXBean}.
+ * Unsupported (or disabled) measures are set to {@literal -1}.
+ */
+final class ThreadUsage {
+
+    /**
+     * CPU time (user + system) in ns.
+     */
+    final long cpuTime;
+
+    /**
+     * User mode CPU time in ns.
+     */
+    final long userTime;
+
+    final long blockedCount;
+
+    /**
+     * Time spent blocked on monitors in ms.
+     */
+    final long blockedTime;
+
+    final long waitedCount;
+
+    /**
+     * Time spent in wait, join, park or sleep in ms.
+     */
+    final long waitedTime;
+
+    ThreadUsage(final long cpuTime,
+                final long userTime,
+                final long blockedCount,
+                final long blockedTime,
+                final long waitedCount,
+                final long waitedTime) {
+        this.cpuTime = cpuTime;
+        this.userTime = userTime;
+        this.blockedCount = blockedCount;
+        this.blockedTime = blockedTime;
+        this.waitedCount = waitedCount;
+        this.waitedTime = waitedTime;
+    }
+
+    /**
+     * Must be called from the measured thread: current thread CPU times are cheaper to obtain.
+     * @param withUserTime user time is an order of magnitude slower to obtain than CPU time on some systems
+     */
+    static ThreadUsage current(final ThreadMXBean bean, final boolean withUserTime) {
+        long cpu = -1;
+        long user = -1;
+        if (bean.isCurrentThreadCpuTimeSupported() && bean.isThreadCpuTimeEnabled()) {
+            cpu = bean.getCurrentThreadCpuTime();
+            if (withUserTime) {
+                user = bean.getCurrentThreadUserTime();
+            }
+        }
+        ThreadInfo info = bean.getThreadInfo(Thread.currentThread().getId(), 0);
+        if (info == null) {
+            return new ThreadUsage(cpu, user, -1, -1, -1, -1);
+        }
+        // Times are -1 unless contention monitoring is enabled
+        return new ThreadUsage(cpu,
+                               user,
+                               info.getBlockedCount(),
+                               info.getBlockedTime(),
+                               info.getWaitedCount(),
+                               info.getWaitedTime());
+    }
+
+    /**
+     * @return usage between the given (earlier) usage and this one
+     */
+    ThreadUsage since(final ThreadUsage start) {
+        return new ThreadUsage(delta(cpuTime, start.cpuTime),
+                               delta(userTime, start.userTime),
+                               delta(blockedCount, start.blockedCount),
+                               delta(blockedTime, start.blockedTime),
+                               delta(waitedCount, start.waitedCount),
+                               delta(waitedTime, start.waitedTime));
+    }
+
+    private static long delta(final long end, final long start) {
+        if ((end < 0) || (start < 0)) {
+            return -1;
+        }
+        return Math.max(0, end - start);
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per job type sums of the thread usage of executed jobs.
+ */
+class ThreadUsageStatistics {
+
+    final ConcurrentMap<String, Totals> partitions = new ConcurrentHashMap<>();
+
+    private final long since;
+
+    ThreadUsageStatistics(final long since) {
+        this.since = since;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public void record(final String jobType, final long wallTime, final ThreadUsage usage) {
+        // Same key as the job-type grouping, jobs may have no type
+        String key = String.valueOf(jobType);
+        Totals totals = partitions.get(key);
+        if (totals == null) {
+            Totals created = new Totals(key);
+            totals = partitions.putIfAbsent(key, created);
+            if (totals == null) {
+                totals = created;
+            }
+        }
+        totals.record(wallTime, usage);
+    }
+
+    /**
+     * @return sums of every job type
+     */
+    public Totals getTotals() {
+        Totals all = new Totals(null);
+        for (Totals totals : partitions.values()) {
+            all.add(totals);
+        }
+        return all;
+    }
+
+    static class Totals {
+        final String jobType;
+        final StripedCounter jobs = new StripedCounter();
+        final StripedCounter wallTime = new StripedCounter();
+
+        /**
+         * Only jobs with a measured CPU time are counted in {@link #cpuJobs}, and their wall time
+         * in {@link #cpuWallTime}, so ratios are not skewed when CPU time is unsupported.
+         */
+        final StripedCounter cpuJobs = new StripedCounter();
+        final StripedCounter cpuWallTime = new StripedCounter();
+        final StripedCounter cpuTime = new StripedCounter();
+        final StripedCounter userWallTime = new StripedCounter();
+        final StripedCounter userTime = new StripedCounter();
+
+        final StripedCounter blockedCount = new StripedCounter();
+        final StripedCounter blockedTime = new StripedCounter();
+        final StripedCounter waitedCount = new StripedCounter();
+        final StripedCounter waitedTime = new StripedCounter();
+
+        Totals(final String jobType) {
+            this.jobType = jobType;
+        }
+
+        void record(final long wall, final ThreadUsage usage) {
+            jobs.increment();
+            wallTime.add(wall);
+            if (usage.cpuTime >= 0) {
+                cpuJobs.increment();
+                cpuWallTime.add(wall);
+                cpuTime.add(usage.cpuTime);
+            }
+            if (usage.userTime >= 0) {
+                userWallTime.add(wall);
+                userTime.add(usage.userTime);
+            }
+            addIfSupported(blockedCount, usage.blockedCount);
+            addIfSupported(blockedTime, usage.blockedTime);
+            addIfSupported(waitedCount, usage.waitedCount);
+            addIfSupported(waitedTime, usage.waitedTime);
+        }
+
+        void add(final Totals other) {
+            jobs.add(other.jobs.sum());
+            wallTime.add(other.wallTime.sum());
+            cpuJobs.add(other.cpuJobs.sum());
+            cpuWallTime.add(other.cpuWallTime.sum());
+            cpuTime.add(other.cpuTime.sum());
+            userWallTime.add(other.userWallTime.sum());
+            userTime.add(other.userTime.sum());
+            blockedCount.add(other.blockedCount.sum());
+            blockedTime.add(other.blockedTime.sum());
+            waitedCount.add(other.waitedCount.sum());
+            waitedTime.add(other.waitedTime.sum());
+        }
+
+        private static void addIfSupported(final StripedCounter counter, final long value) {
+            if (value >= 0) {
+                counter.add(value);
+            }
+        }
+    }
+}
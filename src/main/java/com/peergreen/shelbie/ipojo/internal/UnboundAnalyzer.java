@@ -0,0 +1,196 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Walks the Extension &rarr; Type &rarr; Instance dependency graph (as indexed by the {@link DeclarationRegistry})
+ * to find the root causes of unbound declarations.
+ * <ul>
+ *     <li>An instance is held by the type declaring its component (name and version)</li>
+ *     <li>A type is held by the extension it requires</li>
+ *     <li>A missing declaration, or an unbound one whose dependencies are satisfied, is a root blocker</li>
+ * </ul>
+ */
+class UnboundAnalyzer {
+
+    private final DeclarationRegistry registry;
+
+    /**
+     * Root blockers of already visited declarations (by service id).
+     */
+    private final Map<Long, Blocker> roots = new HashMap<>();
+
+    private final Map<String, Blocker> blockers = new HashMap<>();
+
+    /**
+     * Dependencies already looked up (instances of the same component share their type declarations).
+     */
+    private final Map<String, List<DeclarationEntry>> dependencies = new HashMap<>();
+
+    UnboundAnalyzer(final DeclarationRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return root blockers, the ones holding back the most declarations first
+     */
+    public List<Blocker> analyze() {
+        DeclarationFilter unbound = new DeclarationFilter();
+        unbound.bound = false;
+        for (DeclarationEntry entry : registry.query(unbound)) {
+            if (!isBound(entry)) {
+                rootOf(entry).held.add(entry);
+            }
+        }
+
+        List<Blocker> ranked = new ArrayList<>(blockers.values());
+        Collections.sort(ranked, Blocker.MOST_HELD_FIRST);
+        return ranked;
+    }
+
+    private Blocker rootOf(final DeclarationEntry entry) {
+        Blocker root = roots.get(entry.getServiceId());
+        if (root == null) {
+            root = findRoot(entry);
+            roots.put(entry.getServiceId(), root);
+        }
+        return root;
+    }
+
+    private Blocker findRoot(final DeclarationEntry entry) {
+        switch (entry.getKind()) {
+            case INSTANCE:
+                DeclarationFilter types = new DeclarationFilter();
+                types.kind = DeclarationKind.TYPE;
+                types.setComponentName(entry.getComponentName());
+                types.componentVersion = entry.getComponentVersion();
+                String component = entry.getComponentName();
+                if (entry.getComponentVersion() != null) {
+                    component += " (" + entry.getComponentVersion() + ")";
+                }
+                return dependencyRoot(entry,
+                                      dependencies("type:" + component, types),
+                                      "Missing type declaration for component '" + component + "'");
+            case TYPE:
+                DeclarationFilter extensions = new DeclarationFilter();
+                extensions.kind = DeclarationKind.EXTENSION;
+                extensions.extensionName = entry.getExtensionName();
+                return dependencyRoot(entry,
+                                      dependencies("extension:" + entry.getExtensionName(), extensions),
+                                      "Missing extension declaration '" + entry.getExtensionName() + "'");
+            default:
+                return blocker(entry);
+        }
+    }
+
+    private List<DeclarationEntry> dependencies(final String key, final DeclarationFilter filter) {
+        List<DeclarationEntry> found = dependencies.get(key);
+        if (found == null) {
+            found = registry.query(filter);
+            dependencies.put(key, found);
+        }
+        return found;
+    }
+
+    private Blocker dependencyRoot(final DeclarationEntry entry,
+                                   final List<DeclarationEntry> dependencies,
+                                   final String missing) {
+        if (dependencies.isEmpty()) {
+            return blocker(missing);
+        }
+        for (DeclarationEntry dependency : dependencies) {
+            if (isBound(dependency)) {
+                // Dependency is satisfied, the declaration is unbound for its own reason
+                return blocker(entry);
+            }
+        }
+        Blocker root = rootOf(dependencies.get(0));
+        root.held.add(dependencies.get(0));
+        return root;
+    }
+
+    private Blocker blocker(final DeclarationEntry entry) {
+        Blocker blocker = blocker("Unbound " + entry.getKind().name().toLowerCase() + " declaration " + entry.getServiceId());
+        blocker.entry = entry;
+        return blocker;
+    }
+
+    private Blocker blocker(final String description) {
+        Blocker blocker = blockers.get(description);
+        if (blocker == null) {
+            blocker = new Blocker(description);
+            blockers.put(description, blocker);
+        }
+        return blocker;
+    }
+
+    private static boolean isBound(final DeclarationEntry entry) {
+        return entry.getDeclaration().getStatus().isBound();
+    }
+
+    static class Blocker {
+
+        static final Comparator<Blocker> MOST_HELD_FIRST = new Comparator<Blocker>() {
+            @Override
+            public int compare(final Blocker first, final Blocker second) {
+                return Integer.compare(second.held.size(), first.held.size());
+            }
+        };
+
+        private final String description;
+
+        /**
+         * The unbound declaration itself, {@literal null} when the blocker is a missing declaration.
+         */
+        private DeclarationEntry entry;
+
+        /**
+         * Unbound declarations held back by this blocker (including the blocker itself), in visit order.
+         */
+        private final Set<DeclarationEntry> held = new LinkedHashSet<>();
+
+        Blocker(final String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public DeclarationEntry getEntry() {
+            return entry;
+        }
+
+        public Set<DeclarationEntry> getHeld() {
+            return held;
+        }
+
+        public int count(final DeclarationKind kind) {
+            int count = 0;
+            for (DeclarationEntry entry : held) {
+                if (entry.getKind() == kind) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+
+/**
+ * Single pass summary of a (possibly large) waiter list: wait-age histogram, per group counts
+ * and the {@code top} oldest waiters (kept in a bounded heap, the backlog is never sorted).
+ */
+class WaiterAnalysis {
+
+    /**
+     * Upper bounds (exclusive, in ms) of the wait-age histogram buckets, the last bucket is unbounded.
+     */
+    static final long[] AGES = {10, 100, 1000, 10000, 60000};
+
+    static final Comparator<JobInfo> OLDEST_FIRST = new Comparator<JobInfo>() {
+        @Override
+        public int compare(final JobInfo first, final JobInfo second) {
+            return Long.compare(first.getEnlistmentTime(), second.getEnlistmentTime());
+        }
+    };
+
+    private final long now;
+    private final int top;
+    private final String groupBy;
+    private final int prefixLength;
+
+    private final long[] histogram = new long[AGES.length + 1];
+    private final Map<String, Group> groups = new HashMap<>();
+
+    /**
+     * Youngest retained waiter at the head.
+     */
+    private final PriorityQueue<JobInfo> oldest;
+
+    private long count = 0;
+
+    /**
+     * @param groupBy {@literal type}, {@literal description-prefix} or {@literal null} (no grouping)
+     */
+    WaiterAnalysis(final long now, final int top, final String groupBy, final int prefixLength) {
+        this.now = now;
+        this.top = top;
+        this.groupBy = groupBy;
+        this.prefixLength = prefixLength;
+        this.oldest = new PriorityQueue<>(Math.max(1, top), Collections.reverseOrder(OLDEST_FIRST));
+    }
+
+    public void add(final JobInfo info) {
+        count++;
+        long wait = Math.max(0, now - info.getEnlistmentTime());
+
+        int bucket = 0;
+        while ((bucket < AGES.length) && (wait >= AGES[bucket])) {
+            bucket++;
+        }
+        histogram[bucket]++;
+
+        if (groupBy != null) {
+            String key = key(info);
+            Group group = groups.get(key);
+            if (group == null) {
+                group = new Group(key);
+                groups.put(key, group);
+            }
+            group.count++;
+            group.maxWait = Math.max(group.maxWait, wait);
+        }
+
+        if (top > 0) {
+            if (oldest.size() < top) {
+                oldest.offer(info);
+            } else if (info.getEnlistmentTime() < oldest.peek().getEnlistmentTime()) {
+                oldest.poll();
+                oldest.offer(info);
+            }
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return waiter count per wait-age bucket (see {@link #AGES})
+     */
+    public long[] getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return groups, largest first
+     */
+    public List<Group> getGroups() {
+        List<Group> sorted = new ArrayList<>(groups.values());
+        Collections.sort(sorted, new Comparator<Group>() {
+            @Override
+            public int compare(final Group first, final Group second) {
+                return Long.compare(second.count, first.count);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * @return the {@code top} oldest waiters, oldest first
+     */
+    public List<JobInfo> getOldest() {
+        List<JobInfo> jobs = new ArrayList<>(oldest);
+        Collections.sort(jobs, OLDEST_FIRST);
+        return jobs;
+    }
+
+    /**
+     * @return wait (in ms) of the given waiter at analysis time
+     */
+    public long waitOf(final JobInfo info) {
+        return Math.max(0, now - info.getEnlistmentTime());
+    }
+
+    private String key(final JobInfo info) {
+        if ("type".equals(groupBy)) {
+            return String.valueOf(info.getJobType());
+        }
+        String description = String.valueOf(info.getDescription());
+        return (description.length() <= prefixLength) ? description : description.substring(0, prefixLength);
+    }
+
+    static class Group {
+        final String key;
+        long count;
+        long maxWait;
+
+        Group(final String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.PrintStream;
+import java.util.List;
+
+import org.apache.felix.gogo.commands.Action;
+import org.apache.felix.gogo.commands.Command;
+import org.apache.felix.gogo.commands.Option;
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.HandlerDeclaration;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.service.command.CommandSession;
+import org.fusesource.jansi.Ansi;
+
+@Component
+@Command(name = "why-unbound",
+         scope = "ipojo",
+         description = "Display the root causes of unbound declarations, ranked by number of held declarations")
+@HandlerDeclaration("<sh:command xmlns:sh='org.ow2.shelbie'/>")
+public class WhyUnboundAction implements Action {
+
+    @Option(name = "-v",
+            aliases = "--verbose",
+            description = "When activated, list every declaration held back by each blocker",
+            required = false)
+    private boolean verbose = false;
+
+    @Option(name = "-n",
+            aliases = "--limit",
+            description = "Maximum number of blockers to display (10 by default)",
+            required = false)
+    private int limit = 10;
+
+    private final DeclarationRegistry registry;
+
+    public WhyUnboundAction(final @Requires DeclarationRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Object execute(final CommandSession session) throws Exception {
+
+        PrintStream out = Consoles.of(session);
+        List<UnboundAnalyzer.Blocker> blockers = new UnboundAnalyzer(registry).analyze();
+
+        int held = 0;
+        for (UnboundAnalyzer.Blocker blocker : blockers) {
+            held += blocker.getHeld().size();
+        }
+        out.print(Ansi.ansi().render("@|bold %d|@ root blocker(s) hold back @|yellow %d|@ unbound declaration(s)%n",
+                                     blockers.size(),
+                                     held));
+
+        int index = 1;
+        for (UnboundAnalyzer.Blocker blocker : blockers.subList(0, Math.min(limit, blockers.size()))) {
+            Ansi buffer = Ansi.ansi();
+            buffer.render("@|bold %3d|@ @|red %s|@%n", index++, blocker.getDescription());
+            if (blocker.getEntry() != null) {
+                buffer.render("    Bundle %d: %s%n",
+                              blocker.getEntry().getBundleId(),
+                              blocker.getEntry().getDeclaration().getStatus().getMessage());
+            }
+            buffer.render("    Holds back @|bold %d|@ declaration(s) (%d extension(s), %d type(s), %d instance(s))%n",
+                          blocker.getHeld().size(),
+                          blocker.count(DeclarationKind.EXTENSION),
+                          blocker.count(DeclarationKind.TYPE),
+                          blocker.count(DeclarationKind.INSTANCE));
+            if (verbose) {
+                for (DeclarationEntry entry : blocker.getHeld()) {
+                    buffer.render("      %-4d %-9s %s%n",
+                                  entry.getServiceId(),
+                                  entry.getKind().name().toLowerCase(),
+                                  (entry.getComponentName() != null) ? entry.getComponentName() : entry.getExtensionName());
+                }
+            }
+            out.print(buffer);
+        }
+
+        out.flush();
+        return null;
+    }
+
+}
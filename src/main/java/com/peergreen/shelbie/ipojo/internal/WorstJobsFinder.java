@@ -0,0 +1,71 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+
+/**
+ * Keeps the {@code size} longest jobs in a bounded min-heap (the shortest retained job is at the head),
+ * so each finished job costs at most O(log size).
+ * Only immutable {@link JobSnapshot}s are retained.
+ */
+class WorstJobsFinder extends EmptyQueueListener {
+    final int size;
+
+    private final PriorityQueue<JobSnapshot> worsts;
+
+    /**
+     * Execution duration a job has to exceed to enter a full heap.
+     * Read without lock so that most jobs never contend on the heap.
+     */
+    private volatile long threshold = Long.MIN_VALUE;
+
+    public WorstJobsFinder(final int size) {
+        this.size = size;
+        this.worsts = new PriorityQueue<>(Math.max(1, size), new WorstJobInfoComparator());
+    }
+
+    @Override
+    protected void ended(final JobInfo info) {
+        if ((size <= 0) || (info.getExecutionDuration() <= threshold)) {
+            return;
+        }
+        synchronized (worsts) {
+            if (worsts.size() < size) {
+                worsts.offer(JobSnapshot.of(info));
+            } else if (info.getExecutionDuration() > worsts.peek().getExecutionDuration()) {
+                worsts.poll();
+                worsts.offer(JobSnapshot.of(info));
+            }
+            if (worsts.size() >= size) {
+                threshold = worsts.peek().getExecutionDuration();
+            }
+        }
+    }
+
+    /**
+     * @return retained jobs, longest first
+     */
+    public List<JobInfo> getWorsts() {
+        List<JobInfo> jobs;
+        synchronized (worsts) {
+            jobs = new ArrayList<JobInfo>(worsts);
+        }
+        Collections.sort(jobs, Collections.reverseOrder(new WorstJobInfoComparator()));
+        return jobs;
+    }
+}
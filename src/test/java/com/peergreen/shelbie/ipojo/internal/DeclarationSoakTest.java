@@ -0,0 +1,262 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.ipojo.extender.ExtensionDeclaration;
+import org.apache.felix.ipojo.extender.InstanceDeclaration;
+import org.apache.felix.ipojo.extender.TypeDeclaration;
+import org.apache.felix.service.command.CommandSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Tens of thousands of declarations registered, unregistered and changing state concurrently
+ * while the declaration commands run.
+ * Only runs with the {@code soak} profile ({@code mvn -Psoak test}).
+ */
+public class DeclarationSoakTest {
+
+    private static final int DECLARATIONS = 30000;
+    private static final int READERS = 2;
+    private static final int BINDERS = Soak.loadThreads(4, READERS);
+    private static final int CHANGES = 50000;
+    private static final int BUNDLES = 50;
+
+    /**
+     * Retained bytes per registered declaration: its entry and its slot in each index.
+     */
+    private static final int ENTRY_FOOTPRINT = 1024;
+
+    /**
+     * What the registry may retain: one entry per declaration still registered.
+     */
+    private static final long MAX_RETAINED = ((long) DECLARATIONS * ENTRY_FOOTPRINT) + LatencyHistogram.FOOTPRINT;
+
+    private DeclarationRegistry registry;
+    private final AtomicLong nextServiceId = new AtomicLong();
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    private final AtomicLong reports = new AtomicLong();
+    private final Soak.Latencies latencies = new Soak.Latencies();
+
+    @Before
+    public void setUp() {
+        registry = new DeclarationRegistry();
+        registry.start();
+    }
+
+    @After
+    public void tearDown() {
+        registry.stop();
+    }
+
+    @Test
+    public void indexesStayConsistentWhileDeclarationsChange() throws Exception {
+        List<Binder> binders = new ArrayList<>();
+        List<Thread> binding = new ArrayList<>();
+        for (int i = 0; i < BINDERS; i++) {
+            Binder binder = new Binder(i);
+            binders.add(binder);
+            binding.add(Soak.start(binder, "binder " + i, failures));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(Soak.start(new Reader(), "reader " + i, failures));
+        }
+        for (Thread thread : binding) {
+            thread.join();
+        }
+        Soak.stop(readers);
+
+        assertTrue("Failures: " + failures, failures.isEmpty());
+        assertTrue("No report ran", reports.get() > 0);
+
+        // Indexes match the declarations left registered, once their state was polled
+        registry.refresh();
+        int bound = 0;
+        int registered = 0;
+        for (Binder binder : binders) {
+            for (Registered declaration : binder.registered) {
+                if (declaration != null) {
+                    registered++;
+                    bound += declaration.fake.getStatus().isBound() ? 1 : 0;
+                }
+            }
+        }
+        assertEquals(registered, registry.size());
+        assertEquals(bound, registry.count(true));
+        assertEquals(registered - bound, registry.count(false));
+        DeclarationFilter unbound = new DeclarationFilter();
+        unbound.bound = false;
+        assertEquals(registered - bound, registry.query(unbound).size());
+
+        // Bounded by construction rather than measured on the heap (which depends on the collector):
+        // unregistered declarations left nothing behind
+        assertEquals(registered, total(registry.getCountsByKind()));
+        assertEquals(registered, total(registry.getCountsByBundle()));
+        assertTrue(registry.getPending().size() <= (registered - bound));
+        long retained = ((long) (registry.size() + registry.getPending().size()) * ENTRY_FOOTPRINT)
+                + LatencyHistogram.FOOTPRINT;
+        assertTrue("Registry retains about " + (retained / 1024) + " KB", retained <= MAX_RETAINED);
+
+        // Latencies are the commands' ones only when no thread waits for a processor
+        int threads = READERS + BINDERS;
+        assumeTrue("Latencies need " + threads + " processors", Soak.hasProcessorPerThread(threads));
+        latencies.assertWithin(Soak.MAX_LATENCY);
+    }
+
+    private static <K extends Comparable<K>> int total(final DeclarationCounts<K> counts) {
+        int total = 0;
+        for (boolean bound : new boolean[] {true, false}) {
+            for (int count : counts.get(bound).values()) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    private void bind(final Registered declaration) {
+        Object service = declaration.fake.getService();
+        if (service instanceof TypeDeclaration) {
+            registry.bindTypeDeclaration((TypeDeclaration) service, declaration.reference);
+        } else if (service instanceof InstanceDeclaration) {
+            registry.bindInstanceDeclaration((InstanceDeclaration) service, declaration.reference);
+        } else {
+            registry.bindExtensionDeclaration((ExtensionDeclaration) service, declaration.reference);
+        }
+    }
+
+    private void unbind(final Registered declaration) {
+        Object service = declaration.fake.getService();
+        if (service instanceof TypeDeclaration) {
+            registry.unbindTypeDeclaration(declaration.reference);
+        } else if (service instanceof InstanceDeclaration) {
+            registry.unbindInstanceDeclaration(declaration.reference);
+        } else {
+            registry.unbindExtensionDeclaration(declaration.reference);
+        }
+    }
+
+    private Registered register(final int index, final boolean bound) {
+        Registered declaration = new Registered(Fakes.declaration(index, bound),
+                                                Fakes.reference(nextServiceId.incrementAndGet(), index % BUNDLES));
+        bind(declaration);
+        return declaration;
+    }
+
+    private static class Registered {
+        final Fakes.FakeDeclaration fake;
+        final ServiceReference reference;
+
+        Registered(final Fakes.FakeDeclaration fake, final ServiceReference reference) {
+            this.fake = fake;
+            this.reference = reference;
+        }
+    }
+
+    /**
+     * Registers its share of the declarations, then unregisters, registers again and changes their state at random.
+     */
+    private class Binder implements Runnable {
+        private final int first;
+        private final Random random;
+        final Registered[] registered = new Registered[DECLARATIONS / BINDERS];
+
+        Binder(final int seed) {
+            this.first = seed * registered.length;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < registered.length; i++) {
+                registered[i] = register(first + i, random.nextBoolean());
+            }
+            for (int i = 0; i < CHANGES; i++) {
+                int slot = random.nextInt(registered.length);
+                Registered declaration = registered[slot];
+                switch (random.nextInt(3)) {
+                    case 0:
+                        if (declaration != null) {
+                            unbind(declaration);
+                            registered[slot] = null;
+                        } else {
+                            registered[slot] = register(first + slot, random.nextBoolean());
+                        }
+                        break;
+                    default:
+                        // Status changes are not notified, the registry polls them
+                        if (declaration != null) {
+                            declaration.fake.setBound(!declaration.fake.getStatus().isBound());
+                        }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs, in a loop, the declaration commands.
+     * The first round (class loading, JIT compilation) is not timed.
+     */
+    private class Reader implements Runnable {
+        private final CommandSession session = Fakes.session();
+        private final DeclarationsAction declarations = new DeclarationsAction(registry);
+        private final WhyUnboundAction whyUnbound = new WhyUnboundAction(registry);
+        private final BindLatencyAction bindLatency = new BindLatencyAction(registry);
+        private final DeclarationFilter filter = new DeclarationFilter();
+
+        Reader() {
+            filter.bound = false;
+            filter.bundleId = 42L;
+            filter.setComponentName("component-1*");
+        }
+
+        @Override
+        public void run() {
+            try {
+                round(new Soak.Latencies());
+                while (!Thread.currentThread().isInterrupted()) {
+                    round(latencies);
+                    reports.incrementAndGet();
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void round(final Soak.Latencies timings) throws Exception {
+            long start = System.nanoTime();
+            declarations.execute(session);
+            start = timings.record("declarations", start);
+            whyUnbound.execute(session);
+            start = timings.record("why-unbound", start);
+            bindLatency.execute(session);
+            start = timings.record("bind-latency", start);
+            registry.query(filter);
+            timings.record("query", start);
+            // Force the polling every time, rather than once per second (background work, not timed)
+            registry.refresh();
+        }
+    }
+}
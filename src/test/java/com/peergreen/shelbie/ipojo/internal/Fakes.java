@@ -0,0 +1,228 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.felix.ipojo.extender.Declaration;
+import org.apache.felix.ipojo.extender.ExtensionDeclaration;
+import org.apache.felix.ipojo.extender.InstanceDeclaration;
+import org.apache.felix.ipojo.extender.Status;
+import org.apache.felix.ipojo.extender.TypeDeclaration;
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.ipojo.extender.queue.QueueListener;
+import org.apache.felix.ipojo.extender.queue.QueueService;
+import org.apache.felix.ipojo.extender.queue.debug.QueueEventProxy;
+import org.apache.felix.service.command.CommandSession;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Fake OSGi and iPOJO services, so the commands run without a framework.
+ * Interfaces are implemented by dynamic proxies answering the few methods used by the bundle
+ * ({@literal null}, {@literal false} or 0 otherwise).
+ */
+final class Fakes {
+
+    private Fakes() {
+    }
+
+    /**
+     * @return a session whose console discards everything (each session has its own console, as in a shell)
+     */
+    static CommandSession session() {
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getConsole", new PrintStream(new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+
+            @Override
+            public void write(final byte[] bytes, final int offset, final int length) {
+            }
+        }));
+        return proxy(CommandSession.class, answers);
+    }
+
+    static ServiceReference reference(final long serviceId, final long bundleId, final Object... properties) {
+        Map<String, Object> values = new HashMap<>();
+        values.put(Constants.SERVICE_ID, serviceId);
+        for (int i = 0; i < properties.length; i += 2) {
+            values.put((String) properties[i], properties[i + 1]);
+        }
+        Map<String, Object> bundleAnswers = new HashMap<>();
+        bundleAnswers.put("getBundleId", bundleId);
+        bundleAnswers.put("getSymbolicName", "bundle-" + bundleId);
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getBundle", proxy(Bundle.class, bundleAnswers));
+        answers.put("getPropertyKeys", values.keySet().toArray(new String[values.size()]));
+        return proxy(ServiceReference.class, answers, values);
+    }
+
+    /**
+     * @param index selects the kind: type, instance or extension
+     */
+    static FakeDeclaration declaration(final int index, final boolean bound) {
+        FakeDeclaration declaration = new FakeDeclaration(bound);
+        Map<String, Object> answers = new HashMap<>();
+        switch (index % 3) {
+            case 0:
+                answers.put("getComponentName", "component-" + (index % 100));
+                answers.put("getComponentVersion", "1.0." + (index % 7));
+                answers.put("getExtension", "extension-" + (index % 5));
+                answers.put("isPublic", true);
+                declaration.service = proxy(TypeDeclaration.class, answers, declaration);
+                break;
+            case 1:
+                answers.put("getComponentName", "component-" + (index % 100));
+                answers.put("getInstanceName", "instance-" + index);
+                answers.put("getConfiguration", new Hashtable<String, Object>());
+                declaration.service = proxy(InstanceDeclaration.class, answers, declaration);
+                break;
+            default:
+                answers.put("getExtensionName", "extension-" + (index % 5));
+                declaration.service = proxy(ExtensionDeclaration.class, answers, declaration);
+        }
+        return declaration;
+    }
+
+    static QueueService queue(final int waiters, final List<JobInfo> waitersInfo) {
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("getWaiters", waiters);
+        answers.put("getCurrents", 1);
+        answers.put("getFinished", 0);
+        answers.put("getWaitersInfo", waitersInfo);
+        return proxy(QueueService.class, answers);
+    }
+
+    private static <T> T proxy(final Class<T> type, final Map<String, Object> answers) {
+        return proxy(type, answers, null);
+    }
+
+    private static <T> T proxy(final Class<T> type, final Map<String, Object> answers, final Object delegate) {
+        return type.cast(Proxy.newProxyInstance(Fakes.class.getClassLoader(),
+                                                new Class<?>[] {type},
+                                                new FakeHandler(answers, delegate)));
+    }
+
+    private static class FakeHandler implements InvocationHandler {
+        private final Map<String, Object> answers;
+
+        /**
+         * Answers {@code getStatus()} (a {@link FakeDeclaration}) or {@code getProperty()} (a map of properties).
+         */
+        private final Object delegate;
+
+        FakeHandler(final Map<String, Object> answers, final Object delegate) {
+            this.answers = answers;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            String name = method.getName();
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("toString".equals(name)) {
+                return method.getDeclaringClass().getSimpleName() + answers;
+            }
+            if ("getStatus".equals(name) && (delegate instanceof FakeDeclaration)) {
+                return ((FakeDeclaration) delegate).getStatus();
+            }
+            if ("getProperty".equals(name) && (delegate instanceof Map)) {
+                return ((Map<?, ?>) delegate).get(args[0]);
+            }
+            if (answers.containsKey(name)) {
+                return answers.get(name);
+            }
+            Class<?> returned = method.getReturnType();
+            if (returned == boolean.class) {
+                return false;
+            }
+            if ((returned == int.class) || (returned == long.class)) {
+                return (returned == int.class) ? (Object) 0 : (Object) 0L;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A declaration whose binding state can be changed (as iPOJO does, without any service event).
+     */
+    static final class FakeDeclaration {
+        private volatile boolean bound;
+        private Declaration service;
+
+        FakeDeclaration(final boolean bound) {
+            this.bound = bound;
+        }
+
+        Declaration getService() {
+            return service;
+        }
+
+        void setBound(final boolean bound) {
+            this.bound = bound;
+        }
+
+        Status getStatus() {
+            final boolean current = bound;
+            return new Status() {
+                @Override
+                public boolean isBound() {
+                    return current;
+                }
+
+                @Override
+                public String getMessage() {
+                    return current ? "Declaration bound" : "Waiting for its extension";
+                }
+
+                @Override
+                public Throwable getThrowable() {
+                    return null;
+                }
+            };
+        }
+    }
+
+    /**
+     * A queue event proxy driven by the test threads.
+     */
+    static final class FakeEventProxy implements QueueEventProxy {
+        final List<QueueListener> listeners = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void addQueueListener(final QueueListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeQueueListener(final QueueListener listener) {
+            listeners.remove(listener);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.ipojo.extender.queue.JobInfo;
+import org.apache.felix.ipojo.extender.queue.QueueListener;
+import org.apache.felix.service.command.CommandSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Millions of synthetic job events recorded from several threads while the queue commands run.
+ * Only runs with the {@code soak} profile ({@code mvn -Psoak test}).
+ */
+public class QueueSoakTest {
+
+    private static final int JOBS = 2000000;
+    private static final int READERS = 2;
+    private static final int PRODUCERS = Soak.loadThreads(4, READERS);
+    private static final int JOB_TYPES = 16;
+
+    /**
+     * Number of distinct description prefixes, for the grouping reports.
+     */
+    private static final int COMPONENTS = 1000;
+
+    /**
+     * Retained bytes per job snapshot (object and strings), as estimated by {@link CaptureSession}.
+     */
+    private static final int JOB_FOOTPRINT = 256;
+
+    /**
+     * What the recorder may retain, whatever the number of recorded jobs.
+     */
+    private static final long MAX_RETAINED = 4 * 1024 * 1024;
+
+    private Fakes.FakeEventProxy proxy;
+    private QueueEventRecorder recorder;
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    private final AtomicLong reports = new AtomicLong();
+    private final Soak.Latencies latencies = new Soak.Latencies();
+
+    @Before
+    public void setUp() {
+        proxy = new Fakes.FakeEventProxy();
+        recorder = new QueueEventRecorder(proxy);
+        recorder.start();
+    }
+
+    @After
+    public void tearDown() {
+        recorder.stop();
+    }
+
+    @Test
+    public void recordsJobsWhileCommandsRun() throws Exception {
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < PRODUCERS; i++) {
+            producers.add(Soak.start(new Producer(JOBS / PRODUCERS, i), "producer " + i, failures));
+        }
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(Soak.start(new Reader(), "reader " + i, failures));
+        }
+        for (Thread thread : producers) {
+            thread.join();
+        }
+        Soak.stop(readers);
+
+        assertTrue("Failures: " + failures, failures.isEmpty());
+        assertEquals((JOBS / PRODUCERS) * PRODUCERS, recorder.getStatistics().accumulated.execution.getCount());
+        assertTrue("No report ran", reports.get() > 0);
+
+        // Bounded by construction rather than measured on the heap (which depends on the collector)
+        QueueStatistics statistics = recorder.getStatistics();
+        assertTrue(recorder.getRunningJobs().isEmpty());
+        assertTrue(statistics.partitioned.partitions.size() <= JOB_TYPES);
+        long retained = retainedSize(statistics);
+        assertTrue("Recorder retains about " + (retained / 1024) + " KB", retained <= MAX_RETAINED);
+
+        // Latencies are the commands' ones only when no thread waits for a processor
+        int threads = READERS + PRODUCERS;
+        assumeTrue("Latencies need " + threads + " processors", Soak.hasProcessorPerThread(threads));
+        latencies.assertWithin(Soak.MAX_LATENCY);
+    }
+
+    /**
+     * @return approximate size of what the recorder retains: its ring, running jobs and statistics
+     */
+    private long retainedSize(final QueueStatistics statistics) {
+        long size = (long) (QueueEventRecorder.RING_CAPACITY + recorder.getRunningJobs().size()) * JOB_FOOTPRINT;
+        size += (2 * LatencyHistogram.FOOTPRINT) + (statistics.worstJobsFinder.getWorsts().size() * JOB_FOOTPRINT);
+        for (PerJobInfos partition : statistics.partitioned.partitions.values()) {
+            size += (2 * LatencyHistogram.FOOTPRINT) + (partition.worstJobsFinder.getWorsts().size() * JOB_FOOTPRINT);
+        }
+        return size;
+    }
+
+    private class Producer implements Runnable {
+        private final int count;
+        private final Random random;
+
+        Producer(final int count, final int seed) {
+            this.count = count;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < count; i++) {
+                JobSnapshot job = new JobSnapshot("type-" + random.nextInt(JOB_TYPES),
+                                                  "component-" + random.nextInt(COMPONENTS) + " job " + i,
+                                                  System.currentTimeMillis(),
+                                                  random.nextInt(100),
+                                                  random.nextInt(50));
+                for (QueueListener listener : proxy.listeners) {
+                    listener.enlisted(job);
+                    listener.started(job);
+                    if ((i % 100) == 0) {
+                        listener.failed(job, null);
+                    } else {
+                        listener.executed(job, null);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs, in a loop, the queue reporting commands (and what the other commands read from the recorder).
+     * The first round (class loading, JIT compilation) is not timed.
+     */
+    private class Reader implements Runnable {
+        private final CommandSession session = Fakes.session();
+        private final QueueInfoAction info;
+        private final QueuePerformanceAction performance;
+        private final GroupingKey grouping = GroupingKeys.parse("regex:(component-\\d+)");
+
+        Reader() {
+            List<JobInfo> waiters = Collections.<JobInfo>singletonList(new JobSnapshot("type", "waiting", 0, 10, 0));
+            QueueRegistry queues = new QueueRegistry();
+            queues.bindQueueService(Fakes.queue(1, waiters), Fakes.reference(1, 1, "ipojo.queue.id", "fake"));
+            info = new QueueInfoAction(queues);
+            performance = new QueuePerformanceAction(recorder, new QueueCaptureManager(proxy));
+        }
+
+        @Override
+        public void run() {
+            try {
+                round(new Soak.Latencies());
+                while (!Thread.currentThread().isInterrupted()) {
+                    round(latencies);
+                    reports.incrementAndGet();
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void round(final Soak.Latencies timings) throws Exception {
+            long start = System.nanoTime();
+            performance.execute(session);
+            start = timings.record("queue-performance", start);
+            info.execute(session);
+            start = timings.record("queue-info", start);
+            new QueueStatisticsPrinter(5, 0).print(Consoles.of(session), recorder.getStatistics(1000));
+            start = timings.record("windowed statistics", start);
+            recorder.getStatistics(Long.MAX_VALUE, new PerJobTypeAccumulator(0, grouping, 100));
+            start = timings.record("grouped statistics", start);
+            recorder.getRates().getRates(10);
+            start = timings.record("rates", start);
+            recorder.getRunningJobs();
+            timings.record("running jobs", start);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2013 Peergreen S.A.S. All rights reserved.
+ * Proprietary and confidential.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.peergreen.shelbie.ipojo.internal;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads and measures shared by the soak tests.
+ */
+final class Soak {
+
+    /**
+     * Every command has to answer within a second (interactive shell), even while the bundle is under load.
+     */
+    static final long MAX_LATENCY = 1000;
+
+    private Soak() {
+    }
+
+    /**
+     * Number of threads loading the bundle: at most {@code max}, leaving a processor to each reader, so the
+     * measured latencies are the ones of the commands rather than the scheduler's share of a saturated machine.
+     */
+    static int loadThreads(final int max, final int readers) {
+        return Math.max(1, Math.min(max, Runtime.getRuntime().availableProcessors() - readers));
+    }
+
+    /**
+     * @return whether each of the given threads can have its own processor
+     */
+    static boolean hasProcessorPerThread(final int threads) {
+        return Runtime.getRuntime().availableProcessors() >= threads;
+    }
+
+    /**
+     * Start a daemon thread, its failure (such as a ConcurrentModificationException) is collected.
+     */
+    static Thread start(final Runnable task, final String name, final Queue<Throwable> failures) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        }, "soak " + name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    static void stop(final List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Slowest run of each command.
+     */
+    static final class Latencies {
+        private final ConcurrentMap<String, AtomicLong> slowest = new ConcurrentSkipListMap<>();
+
+        /**
+         * Record the duration of a command started at {@code start} (from {@link System#nanoTime()}).
+         * @return now, the start of the next command
+         */
+        long record(final String command, final long start) {
+            long now = System.nanoTime();
+            AtomicLong max = slowest.get(command);
+            if (max == null) {
+                slowest.putIfAbsent(command, new AtomicLong());
+                max = slowest.get(command);
+            }
+            long duration = now - start;
+            long current = max.get();
+            while ((duration > current) && !max.compareAndSet(current, duration)) {
+                current = max.get();
+            }
+            return now;
+        }
+
+        void assertWithin(final long limit) {
+            for (Map.Entry<String, AtomicLong> command : slowest.entrySet()) {
+                long latency = TimeUnit.NANOSECONDS.toMillis(command.getValue().get());
+                assertTrue("Slowest " + command.getKey() + " took " + latency + " ms (all: " + this + ")",
+                           latency <= limit);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, AtomicLong> command : slowest.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(command.getKey()).append(' ');
+                sb.append(TimeUnit.NANOSECONDS.toMillis(command.getValue().get())).append(" ms");
+            }
+            return sb.toString();
+        }
+    }
+}